@@ -0,0 +1,140 @@
+package com.xenon.parsing;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Read-only views of parsed trees as standard collections, whose values are unwrapped at each access.
+ * @see TOMLTable#asMap()
+ * @see TOMLArray#asList()
+ */
+final class CollectionViews {
+
+    private CollectionViews() {}
+
+    /**
+     * @return <code>o</code> as a plain Java value: a view for a table or an array, a String, Integer, Long,
+     * Float, Double or Boolean for a number or a string, and the java.time class of its kind for a date-time
+     */
+    static Object unwrap(TOMLObject o) {
+        if (o instanceof TOMLTable t)
+            return new MapView(t);
+        if (o instanceof TOMLArray a)
+            return new ListView(a);
+        if (o instanceof TOMLPrimitive.TOMLString s)
+            return s.asString();
+        if (o instanceof TOMLPrimitive.TOMLInt i)
+            return i.asInt();
+        if (o instanceof TOMLPrimitive.TOMLLong l)
+            return l.asLong();
+        if (o instanceof TOMLPrimitive.TOMLFloat f)
+            return f.asFloat();
+        if (o instanceof TOMLPrimitive.TOMLDouble d)
+            return d.asDouble();
+        if (o instanceof TOMLPrimitive.TOMLDateTime dt)
+            return dt.toTemporal();
+        return o.getAsPrimitive().asBoolean();
+    }
+
+    static final class MapView extends AbstractMap<String, Object> {
+        private final TOMLTable table;
+        private final Map<String, TOMLObject> children;
+        private Set<Entry<String, Object>> entries;
+
+        MapView(TOMLTable t) {
+            table = t;
+            children = t.children();
+        }
+
+        @Override
+        public Object get(Object key) {
+            TOMLObject o = children.get(key);
+            if (o == null)
+                return null;
+            if (table.tracked != null)
+                table.tracked.read((String) key);
+            return unwrap(o);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return children.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return children.size();
+        }
+
+        @Override
+        public Set<String> keySet() {
+            return Collections.unmodifiableSet(children.keySet());
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            Set<Entry<String, Object>> e = entries;
+            return e != null ? e : (entries = new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    Iterator<Entry<String, TOMLObject>> it = children.entrySet().iterator();
+                    return new Iterator<>() {
+                        @Override
+                        public boolean hasNext() {
+                            return it.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            Entry<String, TOMLObject> n = it.next();
+                            if (table.tracked != null)  // binding a map by its entries reads them all
+                                table.tracked.read(n.getKey());
+                            return new SimpleImmutableEntry<>(n.getKey(), unwrap(n.getValue()));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return children.size();
+                }
+            });
+        }
+
+        /**
+         * Same as the toString of other maps, without counting the keys as read: printing a map doesn't use it.
+         */
+        @Override
+        public String toString() {
+            var sb = new StringBuilder("{");
+            for (Entry<String, TOMLObject> e : children.entrySet())
+                sb.append(sb.length() == 1 ? "" : ", ").append(e.getKey()).append('=').append(unwrap(e.getValue()));
+            return sb.append('}').toString();
+        }
+    }
+
+    static final class ListView extends AbstractList<Object> implements RandomAccess {
+        private final TOMLArray array;
+
+        ListView(TOMLArray a) {
+            array = a;
+        }
+
+        @Override
+        public Object get(int index) {
+            return unwrap(array.get(index));
+        }
+
+        @Override
+        public int size() {
+            return array.size();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.xenon.parsing;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Channel of the bytes of a gzip, zlib or raw deflate stream, inflated ahead by another thread.
+ * The inflater thread fills a ring of {@link #BUFFERS} buffers the reader drains, so that inflating and parsing
+ * overlap, and no more than the ring is ever held decompressed. The format is detected from the first bytes.
+ * @see TOMLParser#resetCompressed(InputStream)
+ */
+final class InflatingChannel implements ReadableByteChannel {
+
+    static final int BUFFERS = 4, BUFFER_SIZE = 64 << 10;
+
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final BlockingQueue<ByteBuffer> filled = new ArrayBlockingQueue<>(BUFFERS + 1), free =
+            new ArrayBlockingQueue<>(BUFFERS);
+    private final Thread inflater;
+    private volatile Throwable failure;
+    private ByteBuffer current;
+    private volatile boolean open = true;
+
+    InflatingChannel(InputStream compressed) {
+        for (int i = 0; i < BUFFERS; i++)
+            free.add(ByteBuffer.allocate(BUFFER_SIZE));
+        inflater = new Thread(() -> inflate(compressed), "toml-inflater");
+        inflater.setDaemon(true);
+        inflater.start();
+    }
+
+    private void inflate(InputStream compressed) {
+        try (InputStream in = decoder(compressed)) {
+            for (;;) {
+                ByteBuffer b = free.take();
+                int n = in.readNBytes(b.array(), 0, b.capacity());
+                if (n > 0)
+                    filled.put(b.clear().limit(n));
+                if (n < b.capacity())
+                    break;
+            }
+        } catch (InterruptedException e) {
+            // closed by the reader
+        } catch (Throwable t) {
+            failure = t;
+        } finally {
+            filled.offer(END);  // never full: at most BUFFERS buffers are in it
+        }
+    }
+
+    /**
+     * @return the stream inflating <code>in</code>, after a look at its header
+     */
+    private static InputStream decoder(InputStream in) throws IOException {
+        var b = new BufferedInputStream(in, BUFFER_SIZE);
+        b.mark(2);
+        int b0 = b.read(), b1 = b.read();
+        b.reset();
+        if (b0 == 0x1f && b1 == 0x8b)
+            return new GZIPInputStream(b, BUFFER_SIZE);
+        if (b0 >= 0 && b1 >= 0 && (b0 & 0x0f) == 8 && ((b0 << 8) | b1) % 31 == 0)   // zlib header
+            return new InflaterInputStream(b, new Inflater(), BUFFER_SIZE);
+        return new InflaterInputStream(b, new Inflater(true), BUFFER_SIZE);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!open)
+            throw new ClosedChannelException();
+        if (current == null || !current.hasRemaining()) {
+            if (current == END)
+                return -1;
+            if (current != null)
+                free.add(current);
+            try {
+                current = filled.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the inflater", e);
+            }
+            if (current == END) {
+                if (!open)
+                    throw new AsynchronousCloseException();
+                Throwable t = failure;
+                if (t instanceof IOException)
+                    throw new IOException("Corrupt compressed stream", t);
+                if (t != null)
+                    throw new IOException("Inflater failed", t);
+                return -1;
+            }
+        }
+        int n = Math.min(dst.remaining(), current.remaining());
+        dst.put(dst.position(), current, current.position(), n);
+        dst.position(dst.position() + n);
+        current.position(current.position() + n);
+        return n;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Stops the inflater, which closes the compressed stream, and wakes a reader waiting for it.
+     */
+    @Override
+    public void close() {
+        open = false;
+        inflater.interrupt();
+        filled.clear();
+        filled.offer(END);
+    }
+}
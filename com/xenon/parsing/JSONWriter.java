@@ -0,0 +1,262 @@
+package com.xenon.parsing;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the sections of a TOML document as one JSON object, as they come.
+ * Only the path of tables leading to the current section stays open, with the names already written in each of
+ * them, so the memory used depends on the widest table rather than on the size of the document. The sections of a
+ * table must therefore be declared next to each other: a table can't be written once it has been closed by a
+ * declaration outside of it, like <code>[a.c]</code> in <code>[a.b] [x] [a.c]</code>.
+ * <p>
+ * Since JSON objects can't be amended once written, a name is written at most once in each object: a key defined
+ * twice, a header for a key that already has a value, as in <code>a = 1 [a]</code>, or a second header for the
+ * same table, as in <code>[a] [a]</code>, are rejected.
+ * @see TOMLParser#toJson(Writer)
+ */
+final class JSONWriter implements TOMLWorker.Engine.Sections {
+
+    private static final String[] NO_PATH = {};
+
+    private final Writer out;
+    private final char[] buf = new char[8192];
+    private int pos;
+
+    // open objects, 0 being the root
+    private int depth;
+    private String[] names = new String[8];
+    private boolean[] elements = new boolean[8];    // element of an array of tables
+    private boolean[] members = new boolean[8];     // has members already, next one needs a ','
+    private boolean[] declared = new boolean[8];    // opened by its own header, rather than as a parent or dotted key
+    private Object[] written = new Object[8];       // Map<String, Boolean> of its members, true for closed tables
+    private String pendingArray;    // array of tables under the top object, whose last element was closed
+
+    JSONWriter(Writer out) throws ParsingException {
+        this.out = out;
+        write('{');
+    }
+
+    @Override
+    public void section(String key, boolean arrayOfTables, TOMLTable content) throws ParsingException {
+        String[] path = key == null ? NO_PATH : key.split("\\.");
+        int c = 0;
+        while (c < depth && c < path.length && names[c + 1].equals(path[c]))
+            c++;
+        if (arrayOfTables && c == path.length)  // next element of the same array
+            c--;
+        while (depth > c)
+            pop();
+        if (c == path.length && c != 0) {   // the table is already open, as the parent of a previous section
+            if (elements[depth])
+                throw ParsingException.because("Table " + key + " is already an array of tables");
+            if (declared[depth])
+                throw ParsingException.because("Table " + key + " is declared twice");
+        }
+        for (int i = c; i < path.length; i++)
+            push(path[i], arrayOfTables && i == path.length - 1);
+        declared[depth] = true;
+        members(content);
+    }
+
+    /**
+     * Closes everything and flushes the output.
+     */
+    void end() throws ParsingException {
+        while (depth > 0)
+            pop();
+        closePending();
+        write('}');
+        flushBuffer();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw ParsingException.from(e);
+        }
+    }
+
+    /**
+     * Writes the content of a section into the top object. The last subtable, coming from dotted keys, is left
+     * open so that the next headers can add to it; the others are written whole and closed, so that a later header
+     * declaring a table in them is rejected.
+     */
+    private void members(TOMLTable content) throws ParsingException {
+        closePending();
+        String lastKey = null;
+        TOMLTable last = null;
+        for (Map.Entry<String, TOMLObject> e : content.children().entrySet()) {
+            if (e.getValue() instanceof TOMLTable t) {
+                if (last != null)
+                    member(lastKey, last);
+                lastKey = e.getKey();
+                last = t;
+            } else member(e.getKey(), e.getValue());
+        }
+        if (last != null) {
+            push(lastKey, false);
+            members(last);
+        }
+    }
+
+    private void push(String name, boolean element) throws ParsingException {
+        if (pendingArray != null) {
+            if (element && pendingArray.equals(name)) {
+                pendingArray = null;
+                write(',');
+                write('{');
+                open(name, true);
+                return;
+            }
+            closePending();
+        }
+        Boolean table = written().get(name);
+        if (table == Boolean.TRUE)
+            throw ParsingException.because("Table " + name + " is declared apart from the rest of its parent, " +
+                    "which can't be transcoded as a stream");
+        if (table != null)
+            throw ParsingException.because(name + " already has a value that is not a table");
+        written().put(name, true);
+        comma();
+        string(name);
+        write(':');
+        if (element)
+            write('[');
+        write('{');
+        open(name, element);
+    }
+
+    private void open(String name, boolean element) {
+        if (++depth == names.length) {
+            names = Arrays.copyOf(names, depth << 1);
+            elements = Arrays.copyOf(elements, depth << 1);
+            members = Arrays.copyOf(members, depth << 1);
+            declared = Arrays.copyOf(declared, depth << 1);
+            written = Arrays.copyOf(written, depth << 1);
+        }
+        names[depth] = name;
+        elements[depth] = element;
+        members[depth] = declared[depth] = false;
+        written[depth] = null;
+    }
+
+    private void pop() throws ParsingException {
+        closePending();
+        write('}');
+        boolean element = elements[depth];
+        written[depth] = null;
+        depth--;
+        if (element)
+            pendingArray = names[depth + 1];
+    }
+
+    private void closePending() throws ParsingException {
+        if (pendingArray != null) {
+            write(']');
+            pendingArray = null;
+        }
+    }
+
+    /**
+     * @return the names written in the top object, each mapped to whether it is a table, which can't be reopened
+     */
+    private Map<String, Boolean> written() {
+        @SuppressWarnings("unchecked")
+        Map<String, Boolean> w = (Map<String, Boolean>) written[depth];
+        if (w == null)
+            written[depth] = w = new HashMap<>();
+        return w;
+    }
+
+    private void comma() throws ParsingException {
+        if (members[depth])
+            write(',');
+        members[depth] = true;
+    }
+
+    private void member(String key, TOMLObject value) throws ParsingException {
+        if (written().putIfAbsent(key, value instanceof TOMLTable) != null)
+            throw ParsingException.because(key + " is defined twice");
+        comma();
+        string(key);
+        write(':');
+        value(value);
+    }
+
+    private void value(TOMLObject o) throws ParsingException {
+        if (o instanceof TOMLTable t) {
+            write('{');
+            boolean first = true;
+            for (Map.Entry<String, TOMLObject> e : t.children().entrySet()) {
+                if (!first)
+                    write(',');
+                first = false;
+                string(e.getKey());
+                write(':');
+                value(e.getValue());
+            }
+            write('}');
+        } else if (o instanceof TOMLArray a) {
+            write('[');
+            for (int i = 0, size = a.size(); i < size; i++) {
+                if (i != 0)
+                    write(',');
+                value(a.get(i));
+            }
+            write(']');
+        } else {
+            TOMLPrimitive p = o.getAsPrimitive();
+            if (p.isString() || p.isDateTime())
+                string(p.asCharSequence());
+            else if ((p.isDouble() || p.isFloat()) && !Double.isFinite(p.asDouble()))
+                write("null");  // no JSON equivalent
+            else write(p.asString());
+        }
+    }
+
+    private void string(CharSequence s) throws ParsingException {
+        write('"');
+        for (int i = 0, len = s.length(); i < len; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> write("\\\"");
+                case '\\' -> write("\\\\");
+                case '\n' -> write("\\n");
+                case '\r' -> write("\\r");
+                case '\t' -> write("\\t");
+                case '\b' -> write("\\b");
+                case '\f' -> write("\\f");
+                default -> {
+                    if (c < 0x20) {
+                        write("\\u00");
+                        write(Character.forDigit(c >> 4, 16));
+                        write(Character.forDigit(c & 15, 16));
+                    } else write(c);
+                }
+            }
+        }
+        write('"');
+    }
+
+    private void write(String s) throws ParsingException {
+        for (int i = 0, len = s.length(); i < len; i++)
+            write(s.charAt(i));
+    }
+
+    private void write(char c) throws ParsingException {
+        if (pos == buf.length)
+            flushBuffer();
+        buf[pos++] = c;
+    }
+
+    private void flushBuffer() throws ParsingException {
+        try {
+            out.write(buf, 0, pos);
+        } catch (IOException e) {
+            throw ParsingException.from(e);
+        }
+        pos = 0;
+    }
+}
@@ -1,11 +1,158 @@
 package com.xenon.parsing;
 
+import java.lang.management.ManagementFactory;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 
+/**
+ * Command line entry point.
+ * <ul>
+ *     <li><code>Main [file]</code> prints the parsed file, <code>./test.toml</code> by default</li>
+ *     <li><code>Main generate [options] [--seed n]</code> prints a synthetic document</li>
+ *     <li><code>Main stress [options] [--docs n] [--threads 1,2,4] [--seconds s]</code> parses a corpus of
+ *     synthetic documents from several threads and reports throughput, latency and allocation rate for each
+ *     thread count</li>
+ *     <li><code>Main footprint file [--depth d]</code> prints the estimated heap retained by the parsed file,
+ *     by kind of object and by subtree, see {@link TOMLFootprint}</li>
+ * </ul>
+ * Generator options are <code>--size --depth --keys --array --string --escapes --floats --underscores</code>,
+ * see {@link TOMLGenerator}.
+ */
 public class Main {
 
-    public static void main(String[] __) throws Exception{
+    public static void main(String[] args) throws Exception{
+        if (args.length == 0)
+            System.out.println(TOMLWorker.parse(Paths.get("./test.toml")));
+        else switch (args[0]) {
+            case "generate" -> {
+                Map<String, String> o = options(args);
+                System.out.print(generator(o).generate(Long.parseLong(o.getOrDefault("seed", "0"))));
+            }
+            case "stress" -> stress(options(args));
+            case "footprint" -> {
+                if (args.length < 2)
+                    throw new IllegalArgumentException("Missing file to measure");
+                Map<String, String> o = options(Arrays.copyOfRange(args, 1, args.length));
+                System.out.print(TOMLFootprint.of(TOMLWorker.parse(Paths.get(args[1])),
+                        Integer.parseInt(o.getOrDefault("depth", "1"))));
+            }
+            default -> System.out.println(TOMLWorker.parse(Paths.get(args[0])));
+        }
+    }
+
+    private static Map<String, String> options(String[] args) {
+        Map<String, String> o = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            if (!args[i].startsWith("--"))
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            String name = args[i].substring(2);
+            if (name.equals("underscores"))
+                o.put(name, "true");
+            else if (i + 1 < args.length)
+                o.put(name, args[++i]);
+            else throw new IllegalArgumentException("Missing value for " + args[i]);
+        }
+        return o;
+    }
+
+    private static TOMLGenerator generator(Map<String, String> o) {
+        TOMLGenerator d = TOMLGenerator.DEFAULT;
+        return new TOMLGenerator(
+                Integer.parseInt(o.getOrDefault("size", Integer.toString(d.size()))),
+                Integer.parseInt(o.getOrDefault("depth", Integer.toString(d.depth()))),
+                Integer.parseInt(o.getOrDefault("keys", Integer.toString(d.keys()))),
+                Integer.parseInt(o.getOrDefault("array", Integer.toString(d.arrayLength()))),
+                Integer.parseInt(o.getOrDefault("string", Integer.toString(d.stringLength()))),
+                Double.parseDouble(o.getOrDefault("escapes", Double.toString(d.escapeDensity()))),
+                Double.parseDouble(o.getOrDefault("floats", Double.toString(d.floatRatio()))),
+                o.containsKey("underscores"));
+    }
+
+    /**
+     * Parses the corpus for a fixed time with each thread count, after a warm-up round.
+     */
+    private static void stress(Map<String, String> o) throws Exception {
+        TOMLGenerator gen = generator(o);
+        int docs = Integer.parseInt(o.getOrDefault("docs", "64"));
+        long seed = Long.parseLong(o.getOrDefault("seed", "0"));
+        double seconds = Double.parseDouble(o.getOrDefault("seconds", "5"));
+        int[] threads = Arrays.stream(o.getOrDefault("threads", "1,2,4").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+
+        String[] corpus = new String[docs];
+        long chars = 0;
+        for (int i = 0; i < docs; i++)
+            chars += (corpus[i] = gen.generate(seed + i)).length();
+        System.out.printf("%d documents, %.1f KB on average, %s%n", docs, chars / 1024.0 / docs, gen);
+
+        run(corpus, threads[threads.length - 1], Math.min(seconds, 2));   // warm-up
+        System.out.printf("%8s %12s %10s %10s %10s %12s %12s%n",
+                "threads", "docs/s", "MB/s", "p50 us", "p99 us", "alloc MB/s", "alloc/doc KB");
+        for (int t : threads) {
+            Result r = run(corpus, t, seconds);
+            long[] lat = r.latencies;
+            Arrays.sort(lat);
+            double elapsed = r.nanos / 1e9;
+            System.out.printf("%8d %12.0f %10.1f %10.1f %10.1f %12.1f %12.1f%n", t,
+                    lat.length / elapsed,
+                    r.chars / elapsed / 1e6,
+                    lat[(int) (lat.length * 0.50)] / 1e3,
+                    lat[Math.min(lat.length - 1, (int) (lat.length * 0.99))] / 1e3,
+                    r.allocated / elapsed / 1e6,
+                    r.allocated / 1024.0 / lat.length);
+        }
+    }
+
+    private record Result(long[] latencies, long chars, long allocated, long nanos) {}
 
-        System.out.println(TOMLWorker.parse(Paths.get("./test.toml")));
+    private static Result run(String[] corpus, int threads, double seconds) throws Exception {
+        var mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long[][] latencies = new long[threads][];
+        long[] chars = new long[threads], allocated = new long[threads];
+        Exception[] failure = new Exception[1];
+        var start = new CountDownLatch(1);
+        Thread[] ts = new Thread[threads];
+        long[] deadline = new long[1];
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            ts[t] = new Thread(() -> {
+                long[] lat = new long[1 << 12];
+                int n = 0;
+                long c = 0;
+                try {
+                    start.await();
+                    long alloc = mx.getCurrentThreadAllocatedBytes();
+                    for (int i = id; System.nanoTime() < deadline[0]; i++) {
+                        String doc = corpus[i % corpus.length];
+                        long t0 = System.nanoTime();
+                        TOMLParser.local().reset(doc).parse();
+                        long t1 = System.nanoTime();
+                        if (n == lat.length)
+                            lat = Arrays.copyOf(lat, n << 1);
+                        lat[n++] = t1 - t0;
+                        c += doc.length();
+                    }
+                    allocated[id] = mx.getCurrentThreadAllocatedBytes() - alloc;
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+                latencies[id] = Arrays.copyOf(lat, n);
+                chars[id] = c;
+            }, "stress-" + t);
+            ts[t].start();
+        }
+        long t0 = System.nanoTime();
+        deadline[0] = t0 + (long) (seconds * 1e9);
+        start.countDown();
+        for (Thread t : ts)
+            t.join();
+        long nanos = System.nanoTime() - t0;
+        if (failure[0] != null)
+            throw failure[0];
+        return new Result(Arrays.stream(latencies).flatMapToLong(Arrays::stream).toArray(),
+                Arrays.stream(chars).sum(), Arrays.stream(allocated).sum(), nanos);
     }
 }
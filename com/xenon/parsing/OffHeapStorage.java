@@ -0,0 +1,301 @@
+package com.xenon.parsing;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Native memory holding the large arrays and strings of the documents parsed with it, out of the reach of the
+ * garbage collector.
+ * Numeric arrays of at least {@link #arrayThreshold} elements of the same type are packed 8 bytes per element, and
+ * strings of at least {@link #stringThreshold} characters are copied out of the heap; the {@link TOMLArray}s and
+ * {@link TOMLPrimitive}s of the tree then read from this storage. Multiline strings are moved out of the heap while
+ * they are being read, as soon as they reach the threshold, so that a large one is never held whole in the heap.
+ * <pre><code>
+ *     try (OffHeapStorage storage = new OffHeapStorage()) {
+ *         TOMLTable root = TOMLParser.local().offHeap(storage).reset(path).parse();
+ *         ...
+ *     }   // root's off-heap values can't be read anymore
+ * </code></pre>
+ * Closing the storage makes every value stored in it unreadable. Its memory is given back once the last of these
+ * values is unreachable as well, since direct buffers can't be freed explicitly.
+ */
+public final class OffHeapStorage implements AutoCloseable {
+
+    private static final int CHUNK = 1 << 20;
+
+    public final int arrayThreshold, stringThreshold;
+
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private ByteBuffer current;
+    private long allocated;
+    private volatile boolean closed;
+
+    /**
+     * Storage for arrays of at least 4096 elements and strings of at least 65536 characters.
+     */
+    public OffHeapStorage() {
+        this(4096, 1 << 16);
+    }
+
+    /**
+     * @param arrayThreshold the minimum number of elements of a numeric array stored off-heap
+     * @param stringThreshold the minimum length of a string stored off-heap
+     */
+    public OffHeapStorage(int arrayThreshold, int stringThreshold) {
+        if (arrayThreshold < 1 || stringThreshold < 1)
+            throw new IllegalArgumentException("Invalid thresholds: " + arrayThreshold + ", " + stringThreshold);
+        this.arrayThreshold = arrayThreshold;
+        this.stringThreshold = stringThreshold;
+    }
+
+    /**
+     * @return the number of bytes allocated so far
+     */
+    public synchronized long allocatedBytes() {
+        return allocated;
+    }
+
+    /**
+     * Makes the values stored here unreadable and drops the storage's own references to its memory.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        chunks.clear();
+        current = null;
+    }
+
+    /**
+     * @return a zeroed buffer of <code>bytes</code> bytes, carved from a shared chunk unless it is large
+     */
+    synchronized ByteBuffer allocate(int bytes) {
+        check();
+        bytes = (bytes + 7) & ~7;
+        allocated += bytes;
+        if (bytes > CHUNK >> 2)
+            return ByteBuffer.allocateDirect(bytes);
+        if (current == null || current.remaining() < bytes) {
+            current = ByteBuffer.allocateDirect(CHUNK);
+            chunks.add(current);
+        }
+        ByteBuffer b = current.slice(current.position(), bytes);
+        current.position(current.position() + bytes);
+        return b;
+    }
+
+    void check() {
+        if (closed)
+            throw new IllegalStateException("Off-heap storage closed");
+    }
+
+    /**
+     * Copies a string out of the heap.
+     * @param s the string
+     * @return a read-only view of the copy
+     */
+    CharSequence chars(String s) {
+        CharBuffer b = allocate(s.length() * 2).asCharBuffer();
+        b.put(s).flip();
+        return new Chars(this, b.asReadOnlyBuffer());
+    }
+
+    /**
+     * @return a reader of <code>s</code>, which doesn't copy it into the heap if it is stored off-heap
+     */
+    static Reader reader(CharSequence s) {
+        return s instanceof Chars c ? c.reader() : new StringReader(s.toString());
+    }
+
+    /**
+     * Growing buffer of the chars of a string being read, in its own direct buffer.
+     */
+    final class CharsBuilder {
+        private CharBuffer buffer;
+
+        CharsBuilder(int capacity) {
+            buffer = allocateChars(capacity);
+        }
+
+        private CharBuffer allocateChars(int capacity) {
+            check();
+            synchronized (OffHeapStorage.this) {
+                allocated += 2L * capacity;
+            }
+            return ByteBuffer.allocateDirect(2 * capacity).asCharBuffer();
+        }
+
+        void append(CharSequence s) {
+            int len = s.length();
+            if (buffer.remaining() < len) {
+                int size = buffer.position();
+                CharBuffer b = allocateChars(Math.max(size + len, size << 1));
+                b.put(buffer.flip());
+                synchronized (OffHeapStorage.this) {
+                    allocated -= 2L * buffer.capacity();
+                }
+                buffer = b;
+            }
+            buffer.append(s);
+        }
+
+        int length() {
+            return buffer.position();
+        }
+
+        char last() {
+            return buffer.get(buffer.position() - 1);
+        }
+
+        void removeLast() {
+            buffer.position(buffer.position() - 1);
+        }
+
+        /**
+         * Replaces the escape sequences of the chars in place.
+         * @return the string
+         * @throws ParsingException if an escape sequence is malformed
+         */
+        CharSequence unescape() throws ParsingException {
+            CharBuffer b = buffer.flip();
+            b.limit(StringMisc.unescapeJava(b, b.limit()));
+            return new Chars(OffHeapStorage.this, b.slice().asReadOnlyBuffer());
+        }
+    }
+
+    /**
+     * String stored off-heap. Only {@link #toString()} copies it back into the heap.
+     */
+    private record Chars(OffHeapStorage storage, CharBuffer buffer) implements CharSequence {
+
+        @Override
+        public int length() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public char charAt(int index) {
+            storage.check();
+            return buffer.get(buffer.position() + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new Chars(storage, buffer.subSequence(start, end));
+        }
+
+        @Override
+        public String toString() {
+            storage.check();
+            return buffer.toString();
+        }
+
+        Reader reader() {
+            CharBuffer b = buffer.duplicate();
+            return new Reader() {
+                @Override
+                public int read(char[] cbuf, int off, int len) {
+                    storage.check();
+                    if (!b.hasRemaining())
+                        return len == 0 ? 0 : -1;
+                    int n = Math.min(len, b.remaining());
+                    b.get(cbuf, off, n);
+                    return n;
+                }
+
+                @Override
+                public void close() {}
+            };
+        }
+    }
+
+    /**
+     * Elements of a numeric array, all of the same type, stored in blocks of 8192 elements.
+     */
+    static final class Numbers extends AbstractList<TOMLObject> {
+
+        private static final int BLOCK_SHIFT = 13, BLOCK = 1 << BLOCK_SHIFT;
+
+        private final OffHeapStorage storage;
+        private final Class<?> type;
+        private ByteBuffer[] blocks = new ByteBuffer[4];
+        private int size;
+
+        private Numbers(OffHeapStorage storage, Class<?> type) {
+            this.storage = storage;
+            this.type = type;
+        }
+
+        /**
+         * @param elements the elements to pack
+         * @return the packed elements, or null if they're not all numbers of the same type
+         */
+        static Numbers pack(OffHeapStorage storage, List<TOMLObject> elements) {
+            Class<?> type = elements.get(0).getClass();
+            if (type != TOMLPrimitive.TOMLInt.class && type != TOMLPrimitive.TOMLLong.class
+                    && type != TOMLPrimitive.TOMLFloat.class && type != TOMLPrimitive.TOMLDouble.class)
+                return null;
+            for (TOMLObject o : elements)
+                if (o.getClass() != type)
+                    return null;
+            var n = new Numbers(storage, type);
+            for (TOMLObject o : elements)
+                n.append(o.getAsPrimitive());
+            return n;
+        }
+
+        /**
+         * @return whether <code>o</code> could be packed with the other elements
+         */
+        boolean offer(TOMLObject o) {
+            if (o.getClass() != type)
+                return false;
+            append(o.getAsPrimitive());
+            return true;
+        }
+
+        private void append(TOMLPrimitive p) {
+            int b = size >>> BLOCK_SHIFT;
+            if (b == blocks.length)
+                blocks = Arrays.copyOf(blocks, b << 1);
+            if (blocks[b] == null)
+                blocks[b] = storage.allocate(BLOCK << 3);
+            long bits = type == TOMLPrimitive.TOMLFloat.class || type == TOMLPrimitive.TOMLDouble.class ?
+                    Double.doubleToRawLongBits(p.asDouble()) : p.asLong();
+            blocks[b].putLong((size & BLOCK - 1) << 3, bits);
+            size++;
+        }
+
+        @Override
+        public TOMLObject get(int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException(index);
+            storage.check();
+            long bits = blocks[index >>> BLOCK_SHIFT].getLong((index & BLOCK - 1) << 3);
+            if (type == TOMLPrimitive.TOMLInt.class)
+                return new TOMLPrimitive.TOMLInt((int) bits);
+            if (type == TOMLPrimitive.TOMLLong.class)
+                return new TOMLPrimitive.TOMLLong(bits);
+            if (type == TOMLPrimitive.TOMLFloat.class)
+                return new TOMLPrimitive.TOMLFloat((float) Double.longBitsToDouble(bits));
+            return new TOMLPrimitive.TOMLDouble(Double.longBitsToDouble(bits));
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return the elements, back on the heap
+         */
+        List<TOMLObject> unpack() {
+            return new ArrayList<>(this);
+        }
+    }
+}
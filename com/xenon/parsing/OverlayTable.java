@@ -0,0 +1,195 @@
+package com.xenon.parsing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read-only view of a stack of tables, where the upper layers override the lower ones.
+ * Unlike merging the layers into a new table, nothing is copied: a lookup walks the layers from the top and returns
+ * the first value found. A layer holding something else than a table on the way to a key hides that key in the
+ * layers below it. Resolved keys are memoized until the stack changes, and changing the stack only bumps a
+ * generation number, so {@link #push(TOMLTable) pushing} or {@link #set(int, TOMLTable) replacing} a layer is O(1).
+ * The memo holds up to 1024 keys, misses included, and is dropped whole when it's full.
+ * <pre><code>
+ *     OverlayTable config = new OverlayTable(defaults, environment).push(host);
+ *     TOMLObject port = config.get("server.port");
+ *     OverlayTable server = config.table("server");  // keys of every layer's [server]
+ * </code></pre>
+ * An OverlayTable is not thread-safe.
+ */
+public final class OverlayTable {
+
+    static final int MEMO_LIMIT = 1024;
+
+    /** result of {@link #lookup} for a key hidden by a value that is not a table */
+    private static final TOMLObject SHADOWED = new TOMLObject();
+
+    private final OverlayTable root;
+    private final String prefix;    // dotted key of this view in root, with a trailing dot, "" for root
+
+    // root only
+    private final List<TOMLTable> layers;
+    private final Map<String, Resolved> resolved;
+    private int generation;
+
+    /**
+     * @param layers the initial layers, from the lowest to the highest priority
+     */
+    public OverlayTable(TOMLTable... layers) {
+        root = this;
+        prefix = "";
+        this.layers = new ArrayList<>(Math.max(layers.length, 4));
+        Collections.addAll(this.layers, layers);
+        resolved = new HashMap<>();
+    }
+
+    private OverlayTable(OverlayTable root, String prefix) {
+        this.root = root;
+        this.prefix = prefix;
+        layers = null;
+        resolved = null;
+    }
+
+    /**
+     * Adds a layer above all the others.
+     * @param layer the new top layer
+     * @return this view
+     * @throws IllegalStateException if this is a {@link #table(String) subtable view}
+     */
+    public OverlayTable push(TOMLTable layer) {
+        checkRoot();
+        layers.add(layer);
+        generation++;
+        return this;
+    }
+
+    /**
+     * Replaces a layer, typically with a newly parsed version of the same file.
+     * @param index the index of the layer, 0 being the lowest
+     * @param layer the new layer
+     * @return the replaced layer
+     * @throws IllegalStateException if this is a {@link #table(String) subtable view}
+     */
+    public TOMLTable set(int index, TOMLTable layer) {
+        checkRoot();
+        TOMLTable old = layers.set(index, layer);
+        generation++;
+        return old;
+    }
+
+    /**
+     * @return the number of layers
+     */
+    public int layerCount() {
+        return root.layers.size();
+    }
+
+    /**
+     * Gets the value of the topmost layer that has one for <code>key</code>, unless a layer above it has a value
+     * that is not a table for a prefix of <code>key</code>.
+     * Tables are not merged: use {@link #table(String)} to see the keys of every layer.
+     * @param key the (dotted) key, relative to this view
+     * @return the value, or null if no layer has one
+     */
+    public TOMLObject get(String key) {
+        return root.resolve(prefix.isEmpty() ? key : prefix.concat(key));
+    }
+
+    public boolean contains(String key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns a view of the tables associated with <code>key</code> in every layer, stacked in the same order.
+     * The view follows the changes of this one.
+     * @param key the (dotted) key, relative to this view
+     * @return the view, or null if the topmost value for <code>key</code> is not a table
+     */
+    public OverlayTable table(String key) {
+        TOMLObject o = get(key);
+        if (o == null || !o.isTable())
+            return null;
+        return new OverlayTable(root, prefix + key + '.');
+    }
+
+    /**
+     * Computes the union of the direct keys of this view in every layer. Not memoized.
+     * @return the keys, in no particular order
+     */
+    public Set<String> keySet() {
+        Set<String> keys = new LinkedHashSet<>();
+        List<TOMLTable> l = root.layers;
+        String p = prefix.isEmpty() ? null : prefix.substring(0, prefix.length() - 1);
+        for (int i = l.size() - 1; i >= 0; i--) {
+            TOMLObject t = p == null ? l.get(i) : lookup(l.get(i), p);
+            if (t == null)
+                continue;
+            if (!t.isTable())   // hides the layers below
+                break;
+            keys.addAll(t.getAsTable().keySet());
+        }
+        return keys;
+    }
+
+    private TOMLObject resolve(String key) {
+        Resolved r = resolved.get(key);
+        if (r == null) {
+            if (resolved.size() >= MEMO_LIMIT)
+                resolved.clear();
+            r = new Resolved();
+            r.generation = generation - 1;
+            resolved.put(key, r);
+        }
+        if (r.generation != generation) {
+            TOMLObject v = null;
+            for (int i = layers.size() - 1; i >= 0 && v == null; i--)
+                v = lookup(layers.get(i), key);
+            r.value = v == SHADOWED ? null : v;
+            r.generation = generation;
+        }
+        return r.value;
+    }
+
+    /**
+     * Same as {@link TOMLTable#get(String)}, telling apart a missing key from one hidden by a value that is not
+     * a table.
+     * @return the value, null if the layer has none, or {@link #SHADOWED}
+     */
+    private static TOMLObject lookup(TOMLTable layer, String key) {
+        TOMLTable context = layer;
+        int st = 0, dot;
+        while ((dot = key.indexOf('.', st)) != -1) {
+            TOMLObject o = context.get(key.substring(st, dot));
+            if (o == null)
+                return null;
+            if ((context = TOMLTable.asContext(o)) == null)
+                return SHADOWED;
+            st = dot + 1;
+        }
+        return context.get(st == 0 ? key : key.substring(st));
+    }
+
+    private void checkRoot() {
+        if (root != this)
+            throw new IllegalStateException("Layers can only be changed through the root view");
+    }
+
+    /**
+     * Memoized lookup, reused in place when stale.
+     */
+    private static final class Resolved {
+        TOMLObject value;
+        int generation;
+    }
+
+    @Override
+    public String toString() {
+        return "OverlayTable" + (prefix.isEmpty() ? "" : "[" + prefix.substring(0, prefix.length() - 1) + "]")
+                + keySet();
+    }
+}
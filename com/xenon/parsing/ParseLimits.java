@@ -0,0 +1,59 @@
+package com.xenon.parsing;
+
+/**
+ * Upper bounds enforced while parsing a TOML document.
+ * Every limit is checked incrementally, when the lexer reads input or when the parser opens a container or inserts
+ * a key, so a document that breaks one of them is rejected with a {@link ParsingException} before it could
+ * allocate much more than what the limits allow.
+ * @param maxDocumentLength the maximum number of characters read from the source
+ * @param maxDepth the maximum nesting of tables and arrays, dotted keys and table declarations included
+ * @param maxStringLength the maximum length of a single string, key or unquoted value
+ * @param maxKeys the maximum number of key/value pairs in the whole document
+ * @see TOMLWorker#parse(java.nio.file.Path, ParseLimits)
+ */
+public record ParseLimits(long maxDocumentLength, int maxDepth, int maxStringLength, int maxKeys) {
+
+    /**
+     * Limits used when none are specified. Large enough for any hand-written configuration file.
+     */
+    public static final ParseLimits DEFAULT = new ParseLimits(256L << 20, 512, 16 << 20, 4_000_000);
+
+    /**
+     * No limit at all, apart from the available memory.
+     */
+    public static final ParseLimits UNLIMITED = new ParseLimits(Long.MAX_VALUE, Integer.MAX_VALUE,
+            Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+    public ParseLimits {
+        if (maxDocumentLength < 0 || maxDepth < 1 || maxStringLength < 0 || maxKeys < 0)
+            throw new IllegalArgumentException("Invalid limits: maxDocumentLength=" + maxDocumentLength +
+                    ", maxDepth=" + maxDepth + ", maxStringLength=" + maxStringLength + ", maxKeys=" + maxKeys);
+    }
+
+    public ParseLimits withMaxDocumentLength(long maxDocumentLength) {
+        return new ParseLimits(maxDocumentLength, maxDepth, maxStringLength, maxKeys);
+    }
+
+    public ParseLimits withMaxDepth(int maxDepth) {
+        return new ParseLimits(maxDocumentLength, maxDepth, maxStringLength, maxKeys);
+    }
+
+    public ParseLimits withMaxStringLength(int maxStringLength) {
+        return new ParseLimits(maxDocumentLength, maxDepth, maxStringLength, maxKeys);
+    }
+
+    public ParseLimits withMaxKeys(int maxKeys) {
+        return new ParseLimits(maxDocumentLength, maxDepth, maxStringLength, maxKeys);
+    }
+
+    /**
+     * Checks the length of a string about to be created by the lexer.
+     * @param length the length of the string
+     * @throws ParsingException if it exceeds {@link #maxStringLength()}
+     */
+    void checkString(int length) throws ParsingException {
+        if (length > maxStringLength)
+            throw ParsingException.because("String of length " + length + " exceeds the limit of "
+                    + maxStringLength + " characters");
+    }
+}
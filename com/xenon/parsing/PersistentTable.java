@@ -0,0 +1,359 @@
+package com.xenon.parsing;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Immutable table whose updates return a new table sharing every untouched entry and subtable with the old one.
+ * Keys are kept in a hash array mapped trie, so {@link #with(String, TOMLObject)} and {@link #without(String)} copy
+ * O(log n) small nodes per level of the dotted key, whatever the size of the table:
+ * <pre><code>
+ *     PersistentTable base = PersistentTable.of(TOMLWorker.parse(path));
+ *     PersistentTable request = base.with("server.timeout", override);   // base is untouched
+ * </code></pre>
+ * Subtables are PersistentTables as well. A PersistentTable has the same {@link #structuralHash()} as a
+ * {@link TOMLTable} with the same content.
+ * <p>
+ * Arrays, arrays of tables included, are kept as they are and shared between versions. So {@link #get(String)}
+ * looks through the last table of an array of tables like {@link TOMLTable#get(String)} does, but the updates
+ * don't: that table is a mutable {@link TOMLTable}, which can't be changed without changing every version.
+ * Replace the whole array to update it.
+ */
+public final class PersistentTable extends TOMLObject {
+
+    public static final PersistentTable EMPTY = new PersistentTable(Node.EMPTY, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentTable(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Copies a table, and its subtables recursively. Arrays are shared with <code>table</code>.
+     * @param table the table to copy
+     * @return the persistent copy
+     */
+    public static PersistentTable of(TOMLTable table) {
+        PersistentTable p = EMPTY;
+        for (Map.Entry<String, TOMLObject> e : table.children().entrySet())
+            p = p.put(e.getKey(), e.getValue());
+        return p;
+    }
+
+    /**
+     * Copies this table into a new {@link TOMLTable}, subtables included.
+     * @return the copy
+     */
+    public TOMLTable toTable() {
+        var t = new TOMLTable();
+        Map<String, TOMLObject> children = t.children();
+        forEach((k, v) -> children.put(k, v instanceof PersistentTable p ? p.toTable() : v));
+        return t;
+    }
+
+    /**
+     * Gets the value associated with a key. Dotted keys are looked up through the subtables, and through the last
+     * table of the arrays of tables they encounter.
+     * @param key the (dotted) key
+     * @return the value associated with <code>key</code>, or null if there is none
+     */
+    public TOMLObject get(String key) {
+        PersistentTable context = this;
+        int st = 0, dot;
+        while ((dot = key.indexOf('.', st)) != -1) {
+            TOMLObject o = context.direct(key.substring(st, dot));
+            if (o instanceof PersistentTable p)
+                context = p;
+            else if (o instanceof TOMLArray a && a.ofTables && a.size() != 0)
+                return ((TOMLTable) a.get(a.size() - 1)).get(key.substring(dot + 1));
+            else return null;
+            st = dot + 1;
+        }
+        return context.direct(st == 0 ? key : key.substring(st));
+    }
+
+    public boolean contains(String key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns a table where <code>key</code> is associated with <code>value</code>, creating the missing subtables.
+     * A {@link TOMLTable} value is copied with {@link #of(TOMLTable)}.
+     * @param key the (dotted) key
+     * @param value the value
+     * @return the new table, or this one if <code>key</code> was already associated with <code>value</code>
+     * @throws IllegalArgumentException if an element of <code>key</code> but the last is not a table, arrays of
+     * tables included, unlike for {@link #get(String)}
+     */
+    public PersistentTable with(String key, TOMLObject value) {
+        if (value instanceof TOMLTable t)
+            value = of(t);
+        return with(key.split("\\."), 0, value);
+    }
+
+    private PersistentTable with(String[] path, int i, TOMLObject value) {
+        String k = path[i];
+        if (i == path.length - 1)
+            return put(k, value);
+        TOMLObject o = direct(k);
+        PersistentTable sub;
+        if (o == null)
+            sub = EMPTY;
+        else if (o instanceof PersistentTable p)
+            sub = p;
+        else throw new IllegalArgumentException(k + " is not a table in " + this);
+        return put(k, sub.with(path, i + 1, value));
+    }
+
+    /**
+     * Returns a table without <code>key</code>. Subtables left empty are kept.
+     * @param key the (dotted) key
+     * @return the new table, or this one if <code>key</code> had no value, or goes through something else than a
+     * subtable, such as an array of tables
+     */
+    public PersistentTable without(String key) {
+        return without(key.split("\\."), 0);
+    }
+
+    private PersistentTable without(String[] path, int i) {
+        String k = path[i];
+        int h = spread(k.hashCode());
+        if (i == path.length - 1)
+            return root.find(k, h, 0) == null ? this : new PersistentTable(root.remove(k, h, 0), size - 1);
+        if (!(direct(k) instanceof PersistentTable sub))
+            return this;
+        PersistentTable n = sub.without(path, i + 1);
+        return n == sub ? this : put(k, n);
+    }
+
+    private PersistentTable put(String k, TOMLObject value) {
+        if (value instanceof TOMLTable t)
+            value = of(t);
+        int h = spread(k.hashCode());
+        TOMLObject old = root.find(k, h, 0);
+        if (old == value)
+            return this;
+        return new PersistentTable(root.put(k, h, value, 0), old == null ? size + 1 : size);
+    }
+
+    private TOMLObject direct(String k) {
+        return root.find(k, spread(k.hashCode()), 0);
+    }
+
+    /**
+     * @return a new set holding the direct keys of this table
+     */
+    public Set<String> keySet() {
+        Set<String> keys = new HashSet<>(size * 4 / 3 + 1);
+        forEach((k, v) -> keys.add(k));
+        return Collections.unmodifiableSet(keys);
+    }
+
+    public void forEach(BiConsumer<? super String, ? super TOMLObject> action) {
+        root.forEach(action);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gives the length of the slot array of each trie node, for {@link TOMLFootprint}.
+     */
+    void forEachNode(IntConsumer slots) {
+        root.forEachNode(slots);
+    }
+
+    private static int spread(int h) {
+        return h ^ h >>> 16;
+    }
+
+    @Override
+    long computeStructuralHash() {
+        long[] h = {0x5A5A5A5AL};   // same as TOMLTable
+        forEach((k, v) -> h[0] += mix(hash(k) * 31 + v.structuralHash()));
+        return mix(h[0] + size);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof PersistentTable p) || size != p.size || structuralHash() != p.structuralHash())
+            return false;
+        boolean[] eq = {true};
+        forEach((k, v) -> eq[0] &= v.equals(p.direct(k)));
+        return eq[0];
+    }
+
+    @Override
+    public String toString() {
+        var sb = new StringBuilder("{");
+        forEach((k, v) -> sb.append(sb.length() == 1 ? "" : ", ").append(k).append('=').append(v));
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Trie node. <code>slots</code> holds the key/value pairs of the bits of <code>dataMap</code> from the start,
+     * then the subnodes of the bits of <code>nodeMap</code> from the end.
+     * Past 32 bits of hash, a node only holds colliding pairs, unordered.
+     */
+    private static final class Node {
+
+        static final Node EMPTY = new Node(0, 0, new Object[0]);
+
+        final int dataMap, nodeMap;
+        final Object[] slots;
+
+        Node(int dataMap, int nodeMap, Object[] slots) {
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.slots = slots;
+        }
+
+        TOMLObject find(String key, int hash, int shift) {
+            if (shift >= 32) {
+                for (int i = 0; i < slots.length; i += 2)
+                    if (key.equals(slots[i]))
+                        return (TOMLObject) slots[i + 1];
+                return null;
+            }
+            int bit = 1 << (hash >>> shift & 31);
+            if ((dataMap & bit) != 0) {
+                int i = 2 * Integer.bitCount(dataMap & bit - 1);
+                return key.equals(slots[i]) ? (TOMLObject) slots[i + 1] : null;
+            }
+            if ((nodeMap & bit) != 0)
+                return subnode(bit).find(key, hash, shift + 5);
+            return null;
+        }
+
+        Node put(String key, int hash, TOMLObject value, int shift) {
+            if (shift >= 32) {
+                for (int i = 0; i < slots.length; i += 2)
+                    if (key.equals(slots[i])) {
+                        Object[] s = slots.clone();
+                        s[i + 1] = value;
+                        return new Node(0, 0, s);
+                    }
+                Object[] s = new Object[slots.length + 2];
+                System.arraycopy(slots, 0, s, 0, slots.length);
+                s[slots.length] = key;
+                s[slots.length + 1] = value;
+                return new Node(0, 0, s);
+            }
+            int bit = 1 << (hash >>> shift & 31);
+            if ((dataMap & bit) != 0) {
+                int i = 2 * Integer.bitCount(dataMap & bit - 1);
+                String k = (String) slots[i];
+                if (key.equals(k)) {
+                    Object[] s = slots.clone();
+                    s[i + 1] = value;
+                    return new Node(dataMap, nodeMap, s);
+                }
+                Node sub = pair(k, spread(k.hashCode()), (TOMLObject) slots[i + 1], key, hash, value, shift + 5);
+                // remove the pair, insert the subnode
+                Object[] s = new Object[slots.length - 1];
+                int n = nodeIndex(bit) - 1;   // in the new array
+                System.arraycopy(slots, 0, s, 0, i);
+                System.arraycopy(slots, i + 2, s, i, n - i);
+                s[n] = sub;
+                System.arraycopy(slots, n + 2, s, n + 1, slots.length - n - 2);
+                return new Node(dataMap ^ bit, nodeMap | bit, s);
+            }
+            if ((nodeMap & bit) != 0) {
+                int n = nodeIndex(bit);
+                Object[] s = slots.clone();
+                s[n] = ((Node) slots[n]).put(key, hash, value, shift + 5);
+                return new Node(dataMap, nodeMap, s);
+            }
+            int i = 2 * Integer.bitCount(dataMap & bit - 1);
+            Object[] s = new Object[slots.length + 2];
+            System.arraycopy(slots, 0, s, 0, i);
+            s[i] = key;
+            s[i + 1] = value;
+            System.arraycopy(slots, i, s, i + 2, slots.length - i);
+            return new Node(dataMap | bit, nodeMap, s);
+        }
+
+        Node remove(String key, int hash, int shift) {
+            if (shift >= 32) {
+                for (int i = 0; i < slots.length; i += 2)
+                    if (key.equals(slots[i])) {
+                        Object[] s = new Object[slots.length - 2];
+                        System.arraycopy(slots, 0, s, 0, i);
+                        System.arraycopy(slots, i + 2, s, i, slots.length - i - 2);
+                        return new Node(0, 0, s);
+                    }
+                return this;
+            }
+            int bit = 1 << (hash >>> shift & 31);
+            if ((dataMap & bit) != 0) {
+                int i = 2 * Integer.bitCount(dataMap & bit - 1);
+                Object[] s = new Object[slots.length - 2];
+                System.arraycopy(slots, 0, s, 0, i);
+                System.arraycopy(slots, i + 2, s, i, slots.length - i - 2);
+                return new Node(dataMap ^ bit, nodeMap, s);
+            }
+            int n = nodeIndex(bit);
+            Node sub = ((Node) slots[n]).remove(key, hash, shift + 5);
+            if (sub.nodeMap != 0 || sub.slots.length != 2) {
+                Object[] s = slots.clone();
+                s[n] = sub;
+                return new Node(dataMap, nodeMap, s);
+            }
+            // a single pair left in the subnode: inline it
+            int i = 2 * Integer.bitCount(dataMap & bit - 1);
+            Object[] s = new Object[slots.length + 1];
+            System.arraycopy(slots, 0, s, 0, i);
+            s[i] = sub.slots[0];
+            s[i + 1] = sub.slots[1];
+            System.arraycopy(slots, i, s, i + 2, n - i);
+            System.arraycopy(slots, n + 1, s, n + 2, slots.length - n - 1);
+            return new Node(dataMap | bit, nodeMap ^ bit, s);
+        }
+
+        void forEach(BiConsumer<? super String, ? super TOMLObject> action) {
+            int data = 2 * Integer.bitCount(dataMap);
+            if (nodeMap == 0 && dataMap == 0)
+                data = slots.length;    // collision node, or empty
+            for (int i = 0; i < data; i += 2)
+                action.accept((String) slots[i], (TOMLObject) slots[i + 1]);
+            for (int i = data; i < slots.length; i++)
+                ((Node) slots[i]).forEach(action);
+        }
+
+        void forEachNode(IntConsumer action) {
+            action.accept(slots.length);
+            if (nodeMap != 0)
+                for (int i = 2 * Integer.bitCount(dataMap); i < slots.length; i++)
+                    ((Node) slots[i]).forEachNode(action);
+        }
+
+        private Node subnode(int bit) {
+            return (Node) slots[nodeIndex(bit)];
+        }
+
+        private int nodeIndex(int bit) {
+            return slots.length - 1 - Integer.bitCount(nodeMap & bit - 1);
+        }
+
+        private static Node pair(String k1, int h1, TOMLObject v1, String k2, int h2, TOMLObject v2, int shift) {
+            if (shift >= 32)
+                return new Node(0, 0, new Object[]{k1, v1, k2, v2});
+            int b1 = 1 << (h1 >>> shift & 31), b2 = 1 << (h2 >>> shift & 31);
+            if (b1 == b2)
+                return new Node(0, b1, new Object[]{pair(k1, h1, v1, k2, h2, v2, shift + 5)});
+            return Integer.compareUnsigned(b1, b2) < 0 ?
+                    new Node(b1 | b2, 0, new Object[]{k1, v1, k2, v2}) :
+                    new Node(b1 | b2, 0, new Object[]{k2, v2, k1, v1});
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.xenon.parsing;
 
+import java.nio.CharBuffer;
 import java.util.Arrays;
 import java.util.Map;
 
@@ -70,6 +71,49 @@ public class StringMisc {
         return new String(cs, 0, setIndex);
     }
 
+    /**
+     * Same as {@link #unescapeJava(String)}, in place, for the first <code>len</code> chars of a buffer that may
+     * not be backed by an array and whose position is 0.
+     * @param cs the chars to be formatted
+     * @param len the number of chars
+     * @return the number of chars once formatted
+     * @throws ParsingException if the chars are malformed
+     */
+    static int unescapeJava(CharBuffer cs, int len) throws ParsingException {
+        int readIndex = 0, setIndex = 0;
+        for (; readIndex < len; setIndex++, readIndex++) {
+            char c = cs.get(readIndex);
+            if (c != '\\') {
+                cs.put(setIndex, c);
+                continue;
+            }
+            if (readIndex + 1 == len)
+                throw ParsingException.because("Invalid unicode char");
+            char next = cs.get(readIndex + 1);
+            if (next == 'u') {
+                if (len - readIndex < 6)
+                    throw ParsingException.because("Invalid unicode char: "
+                            + cs.subSequence(readIndex + 2, len));
+                int code = 0;
+                for (int j = 2; j < 6; j++) {
+                    char h = cs.get(readIndex + j);
+                    int hex = '0' <= h && h <= '9' ? h - '0' : 'a' <= h && h <= 'f' ? h - 'a' + 10
+                            : 'A' <= h && h <= 'F' ? h - 'A' + 10 : -1;
+                    if (hex < 0)
+                        throw ParsingException.because("Invalid unicode char: "
+                                + cs.subSequence(readIndex + 2, readIndex + 6));
+                    code = code << 4 | hex;
+                }
+                cs.put(setIndex, (char) code);
+                readIndex += 5;
+            } else if (isAffectedByBackslash(next)) {
+                cs.put(setIndex, controlCodes.get(next));
+                readIndex++;
+            } else throw ParsingException.because("Unknown control code: " + next);
+        }
+        return setIndex;
+    }
+
 
 
 
@@ -91,8 +135,23 @@ public class StringMisc {
     public static int findNearestMatchEscaped(char[] lookup, int startIndex,
                                               @StringValue("(.{2,})|([^\\])") char... pattern)
             throws ParsingException {
+        return findNearestMatchEscaped(lookup, startIndex, lookup.length, pattern);
+    }
+
+    /**
+     * Same as {@link #findNearestMatchEscaped(char[], int, char...)}, in the first <code>afterEnd</code> chars of
+     * <code>lookup</code> only.
+     * @param lookup the char array we search in
+     * @param startIndex the index to start searching from in <code>lookup</code>
+     * @param afterEnd the index right after the last char to search in
+     * @param pattern the escaped char array pattern to look for. anything but <code>{'\\'}</code> as it doesn't make sense
+     * @return the index where the pattern was first found, -1 if nothing was found
+     */
+    public static int findNearestMatchEscaped(char[] lookup, int startIndex, int afterEnd,
+                                              @StringValue("(.{2,})|([^\\])") char[] pattern)
+            throws ParsingException {
         int p_len = pattern.length;
-        int len = lookup.length;
+        int len = afterEnd;
         if (p_len == 0 || startIndex >= len)
             return -1;
 
@@ -141,10 +200,25 @@ public class StringMisc {
      */
     public static int findNearestMatchEscapedStrong(char[] lookup, int startIndex, char... pattern)
             throws ParsingException {
-        int i = findNearestMatchEscaped(lookup, startIndex, pattern);
+        return findNearestMatchEscapedStrong(lookup, startIndex, lookup.length, pattern);
+    }
+
+    /**
+     * Same as {@link #findNearestMatchEscapedStrong(char[], int, char...)}, in the first <code>afterEnd</code> chars
+     * of <code>lookup</code> only.
+     * @param lookup the char array we search in
+     * @param startIndex the index to start searching from in <code>lookup</code>
+     * @param afterEnd the index right after the last char to search in
+     * @param pattern the escaped char array pattern to look for. anything but <code>{'\\'}</code> as it doesn't make sense
+     * @return the index where the pattern was first found
+     * @throws ParsingException if nothing is found
+     */
+    public static int findNearestMatchEscapedStrong(char[] lookup, int startIndex, int afterEnd, char[] pattern)
+            throws ParsingException {
+        int i = findNearestMatchEscaped(lookup, startIndex, afterEnd, pattern);
         if (i == -1)
-            throw ParsingException.of(lookup, startIndex,
-                    "Couldn't find pattern: "+Arrays.toString(pattern)+"in: "+Arrays.toString(lookup)
+            throw ParsingException.of(Arrays.copyOf(lookup, afterEnd), startIndex,
+                    "Couldn't find pattern: "+Arrays.toString(pattern)+"in: "+of(lookup, 0, afterEnd)
                             +"starting from "+startIndex);
         return i;
     }
@@ -161,8 +235,22 @@ public class StringMisc {
      */
     public static int findNearestMatchEscapedUnchecked(char[] lookup, int startIndex,
                                                        @StringValue("(.{2,})|([^\\])") char... pattern){
+        return findNearestMatchEscapedUnchecked(lookup, startIndex, lookup.length, pattern);
+    }
+
+    /**
+     * Same as {@link #findNearestMatchEscapedUnchecked(char[], int, char...)}, in the first <code>afterEnd</code>
+     * chars of <code>lookup</code> only.
+     * @param lookup the char array we search in
+     * @param startIndex the index to start searching from in <code>lookup</code>
+     * @param afterEnd the index right after the last char to search in
+     * @param pattern the escaped char array pattern to look for. anything but <code>{'\\'}</code> as it doesn't make sense
+     * @return the index where the pattern was first found, -1 if nothing was found
+     */
+    public static int findNearestMatchEscapedUnchecked(char[] lookup, int startIndex, int afterEnd,
+                                                       @StringValue("(.{2,})|([^\\])") char[] pattern){
         int p_len = pattern.length;
-        int len = lookup.length;
+        int len = afterEnd;
         if (p_len == 0 || startIndex >= len)
             return -1;
 
@@ -210,8 +298,21 @@ public class StringMisc {
      * @see #findNearestMatchStrong(char[], int, char...)
      */
     public static int findNearestMatch(char[] lookup, int startIndex, char... pattern){
+        return findNearestMatch(lookup, startIndex, lookup.length, pattern);
+    }
+
+    /**
+     * Same as {@link #findNearestMatch(char[], int, char...)}, in the first <code>afterEnd</code> chars of
+     * <code>lookup</code> only.
+     * @param lookup the char array we search in
+     * @param startIndex the index to start searching from in <code>lookup</code>
+     * @param afterEnd the index right after the last char to search in
+     * @param pattern the char array pattern to look for.
+     * @return the index where the pattern was first found, -1 if nothing was found
+     */
+    public static int findNearestMatch(char[] lookup, int startIndex, int afterEnd, char[] pattern){
         int p_len = pattern.length;
-        int len = lookup.length;
+        int len = afterEnd;
         if (p_len == 0 || startIndex >= len)
             return -1;
 
@@ -248,10 +349,25 @@ public class StringMisc {
      */
     public static int findNearestMatchStrong(char[] lookup, int startIndex, char... pattern)
             throws ParsingException {
-        int i = findNearestMatch(lookup, startIndex, pattern);
+        return findNearestMatchStrong(lookup, startIndex, lookup.length, pattern);
+    }
+
+    /**
+     * Same as {@link #findNearestMatchStrong(char[], int, char...)}, in the first <code>afterEnd</code> chars of
+     * <code>lookup</code> only.
+     * @param lookup the char array we search in
+     * @param startIndex the index to start searching from in <code>lookup</code>
+     * @param afterEnd the index right after the last char to search in
+     * @param pattern the char array pattern to look for
+     * @return the index where the pattern was first found
+     * @throws ParsingException if nothing is found
+     */
+    public static int findNearestMatchStrong(char[] lookup, int startIndex, int afterEnd, char[] pattern)
+            throws ParsingException {
+        int i = findNearestMatch(lookup, startIndex, afterEnd, pattern);
         if (i == -1)
-            throw ParsingException.of(lookup, startIndex,
-                    "Couldn't find pattern: "+Arrays.toString(pattern)+"in: "+Arrays.toString(lookup)
+            throw ParsingException.of(Arrays.copyOf(lookup, afterEnd), startIndex,
+                    "Couldn't find pattern: "+Arrays.toString(pattern)+"in: "+of(lookup, 0, afterEnd)
                             +"starting from "+startIndex);
         return i;
     }
@@ -0,0 +1,158 @@
+package com.xenon.parsing;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts of the reads of the keys of parsed trees, to find the keys a program uses the most and those it never
+ * reads.
+ * <pre><code>
+ *     TOMLAccessTracker tracker = new TOMLAccessTracker();
+ *     TOMLTable root = TOMLParser.local().track(tracker).reset(path).parse();
+ *     ...
+ *     System.out.println(tracker.hot(10) + " " + tracker.neverRead());
+ * </code></pre>
+ * Keys are dotted paths from the root, without segments for the elements of arrays: the keys of the tables of
+ * <code>[[products]]</code> are <code>products.key</code>, and share their counts. A read is a {@link TOMLTable#get}
+ * that finds a value, or a lookup in its {@link TOMLTable#asMap() map view}, and counts for the key of the value
+ * only: <code>root.get("server.port")</code> counts for <code>server.port</code>, not for <code>server</code>.
+ * Going through the entries or the values of a map view, as frameworks binding a map to objects do, reads every
+ * key it goes through; going through its keys, or printing it, reads none.
+ * <p>
+ * The counters are {@link LongAdder}s, so that reads from many threads don't contend, and are created once per path
+ * when a tree is {@link #track(TOMLTable) tracked}; a read then costs a hash lookup and an increment. Trees that are
+ * not tracked only pay a null check. Several trees can share a tracker, their counts adding up. The tables of the
+ * arrays stored {@link TOMLColumns by columns} are built at each access and are not tracked.
+ * <p>
+ * The counters are kept in the tables, so a table belongs to one path of one tracker: trees canonicalized by a
+ * {@link TOMLInterner}, whose tables may be shared with other paths and documents, must not be tracked, and tracked
+ * trees are left alone by interners.
+ * @see TOMLParser#track(TOMLAccessTracker)
+ */
+public final class TOMLAccessTracker {
+
+    private final Map<String, Scope> scopes = new ConcurrentHashMap<>();
+
+    /**
+     * Counters of the keys of the tables found at a path.
+     */
+    static final class Scope {
+        final String path;
+        final Map<String, LongAdder> reads = new ConcurrentHashMap<>();
+        final Set<String> leaves = ConcurrentHashMap.newKeySet();  // keys of values that aren't tables
+
+        Scope(String path) {
+            this.path = path;
+        }
+
+        void read(String key) {
+            LongAdder a = reads.get(key);
+            if (a != null)
+                a.increment();
+        }
+
+        String path(String key) {
+            return path.isEmpty() ? key : path + '.' + key;
+        }
+    }
+
+    /**
+     * Tracks the reads of a tree from now on. The tables of the tree are given their counters, the existing ones
+     * if another tree with the same keys was tracked already.
+     * @param root the root of the tree
+     * @return <code>root</code>
+     */
+    public TOMLTable track(TOMLTable root) {
+        track(root, "");
+        return root;
+    }
+
+    private void track(TOMLTable t, String path) {
+        Scope s = scopes.computeIfAbsent(path, Scope::new);
+        for (Map.Entry<String, TOMLObject> e : t.children().entrySet()) {
+            String key = e.getKey();
+            s.reads.computeIfAbsent(key, k -> new LongAdder());
+            TOMLObject v = e.getValue();
+            if (v instanceof TOMLTable child)
+                track(child, s.path(key));
+            else if (v instanceof TOMLArray a && a.columns() == null && !a.isOffHeap() && tables(a))
+                for (TOMLObject o : a)
+                    track(o.getAsTable(), s.path(key));
+            else s.leaves.add(key);
+        }
+        t.tracked = s;
+    }
+
+    private static boolean tables(TOMLArray a) {
+        for (TOMLObject o : a)
+            if (!(o instanceof TOMLTable))
+                return false;
+        return a.size() != 0;
+    }
+
+    /**
+     * @param path the dotted key
+     * @return the number of reads of <code>path</code>, 0 if it is not a key of the tracked trees
+     */
+    public long reads(String path) {
+        int dot = path.lastIndexOf('.');
+        Scope s = scopes.get(dot == -1 ? "" : path.substring(0, dot));
+        LongAdder a = s == null ? null : s.reads.get(dot == -1 ? path : path.substring(dot + 1));
+        return a == null ? 0 : a.sum();
+    }
+
+    /**
+     * @return the number of reads of each key of the tracked trees, tables included, by path
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> m = new HashMap<>();
+        for (Scope s : scopes.values())
+            for (Map.Entry<String, LongAdder> e : s.reads.entrySet())
+                m.put(s.path(e.getKey()), e.getValue().sum());
+        return m;
+    }
+
+    /**
+     * @param n the maximum number of keys
+     * @return the <code>n</code> keys read the most, with their number of reads, the most read first
+     */
+    public Map<String, Long> hot(int n) {
+        List<Map.Entry<String, Long>> l = new ArrayList<>(snapshot().entrySet());
+        l.removeIf(e -> e.getValue() == 0);
+        l.sort(Map.Entry.<String, Long>comparingByValue().reversed()
+                .thenComparing(Map.Entry.comparingByKey(Comparator.naturalOrder())));
+        Map<String, Long> m = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> e : l.subList(0, Math.min(n, l.size())))
+            m.put(e.getKey(), e.getValue());
+        return m;
+    }
+
+    /**
+     * @return the sorted paths of the values other than tables that were never read, candidates for removal
+     */
+    public Set<String> neverRead() {
+        Set<String> never = new TreeSet<>();
+        for (Scope s : scopes.values())
+            for (String key : s.leaves)
+                if (s.reads.get(key).sum() == 0)
+                    never.add(s.path(key));
+        return never;
+    }
+
+    /**
+     * Sets all the counts back to 0, the trees staying tracked.
+     */
+    public void reset() {
+        for (Scope s : scopes.values())
+            for (LongAdder a : s.reads.values())
+                a.reset();
+    }
+}
@@ -1,33 +1,150 @@
 package com.xenon.parsing;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
 public class TOMLArray extends TOMLObject implements Iterable<TOMLObject>{
 
-    private final List<TOMLObject> elements;
+    private List<TOMLObject> elements;
+    /**
+     * Whether this array was declared with <code>[[key]]</code> headers, in which case later headers may add
+     * tables to it, or keys to its last table.
+     */
+    final boolean ofTables;
+    /** where the elements go once they're numerous enough, if anywhere */
+    private final OffHeapStorage storage;
+    /** whether the elements go to {@link TOMLColumns} once they're numerous enough and of the same shape */
+    private final boolean columnar;
+    private OffHeapStorage.Numbers packed;  // non-null while the elements are off-heap
+    private TOMLColumns columns;    // non-null while the elements are inline tables stored by columns
 
     TOMLArray(){
+        this(false);
+    }
+
+    TOMLArray(boolean ofTables){
         elements = new ArrayList<>();
+        this.ofTables = ofTables;
+        storage = null;
+        columnar = false;
+    }
+
+    /**
+     * Array whose elements are moved to <code>storage</code> once there are enough of them, if they're all
+     * numbers of the same type, or stored by columns if they're all inline tables of the same shape.
+     * @param storage the storage, or null to keep the numbers on the heap
+     * @param columnar whether to store same-shaped inline tables by columns
+     */
+    TOMLArray(OffHeapStorage storage, boolean columnar){
+        elements = new ArrayList<>();
+        ofTables = false;
+        this.storage = storage;
+        this.columnar = columnar;
     }
 
     void add(TOMLObject o){
+        invalidate();
+        if (packed != null) {
+            if (packed.offer(o))
+                return;
+            elements = packed.unpack();   // mixed types after all
+            packed = null;
+        }
+        if (columns != null) {
+            if (columns.offer(o))
+                return;
+            elements = columns.unpack();  // mixed shapes after all
+            columns = null;
+        }
         elements.add(o);
+        if (columnar && elements.size() == TOMLColumns.THRESHOLD && (columns = TOMLColumns.pack(elements)) != null)
+            elements = null;
+        else if (storage != null && elements.size() == storage.arrayThreshold
+                && (packed = OffHeapStorage.Numbers.pack(storage, elements)) != null)
+            elements = null;
+    }
+
+    /**
+     * Replaces an element by an equal one, leaving the hash as it is.
+     * @see TOMLInterner
+     */
+    void replace(int index, TOMLObject o){
+        elements.set(index, o);
+    }
+
+    void clear(){
+        invalidate();
+        if (packed != null || columns != null) {
+            packed = null;
+            columns = null;
+            elements = new ArrayList<>();
+        } else elements.clear();
     }
 
     public TOMLObject get(int index){
-        return elements.get(index);
+        return packed != null ? packed.get(index) : columns != null ? columns.rows.get(index) : elements.get(index);
+    }
+
+    public int size(){
+        return packed != null ? packed.size() : columns != null ? columns.size() : elements.size();
+    }
+
+    /**
+     * Read-only view of this array as a standard list, whose elements are unwrapped at each access like the values
+     * of {@link TOMLTable#asMap()}.
+     * @return the view
+     */
+    public List<Object> asList(){
+        return new CollectionViews.ListView(this);
+    }
+
+    public boolean isArrayOfTables(){
+        return ofTables;
+    }
+
+    /**
+     * @return whether the elements are kept in an {@link OffHeapStorage}, in which case {@link #get(int)} returns
+     * a new primitive at each call
+     */
+    public boolean isOffHeap(){
+        return packed != null;
+    }
+
+    /**
+     * @return the elements stored by columns, or null if they are not
+     * @see TOMLColumns
+     */
+    public TOMLColumns columns(){
+        return columns;
+    }
+
+    private List<TOMLObject> view(){
+        return packed != null ? packed : columns != null ? columns.rows : Collections.unmodifiableList(elements);
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public Iterator<TOMLObject> iterator() {
-        return (Iterator<TOMLObject>) elements;
+        return view().iterator();
+    }
+
+    @Override
+    long computeStructuralHash() {
+        long h = 0x3C3C3C3CL;
+        for (TOMLObject o : view())
+            h = mix(h * 31 + o.structuralHash());
+        return mix(h + size());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return this == obj || obj instanceof TOMLArray a && structuralHash() == a.structuralHash()
+                && view().equals(a.view());
     }
 
     @Override
     public String toString() {
-        return elements.toString();
+        return view().toString();
     }
 }
@@ -0,0 +1,282 @@
+package com.xenon.parsing;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column-wise storage of an array of inline tables sharing the same keys, each of them holding values of the same
+ * type for all the tables: <code>points = [{x = 1, y = 2, w = 0.5}, {x = 3, y = 4, w = 0.1}]</code>.
+ * A parser set {@link TOMLParser#columnar(boolean) columnar} switches an array to this storage once it holds
+ * {@link #THRESHOLD} such tables, keeping one primitive array per key instead of a table and a map per element,
+ * and goes back to tables if an element of another shape is added later. Strings, integers, floats and booleans can be stored this way; tables holding dates, arrays or
+ * tables are left alone.
+ * <pre><code>
+ *     TOMLColumns points = root.get("points").getAsArray().columns();
+ *     if (points != null) {
+ *         int x = points.column("x"), w = points.column("w");
+ *         for (int row = 0; row &lt; points.size(); row++)
+ *             sum += points.getLong(row, x) * points.getDouble(row, w);
+ *     }
+ * </code></pre>
+ * The accessors create no object. The elements of the array are still available as tables, built again at
+ * each {@link TOMLArray#get(int)}.
+ * @see TOMLArray#columns()
+ */
+public final class TOMLColumns {
+
+    /**
+     * Number of tables of the same shape an array needs to hold before being stored by columns.
+     */
+    static final int THRESHOLD = 8;
+
+    private final String[] keys;
+    private final Map<String, Integer> index = new HashMap<>();
+    private final TOMLSchema.Type[] types;
+    private final Object[] data;    // long[], double[], boolean[] or CharSequence[] for each column
+    private final BitSet[] wide;    // rows holding a long rather than an int, or a double rather than a float
+    private int size;
+    final Rows rows = new Rows();
+
+    private TOMLColumns(TOMLTable shape) {
+        int n = shape.size();
+        keys = new String[n];
+        types = new TOMLSchema.Type[n];
+        data = new Object[n];
+        wide = new BitSet[n];
+        int c = 0;
+        for (Map.Entry<String, TOMLObject> e : shape.children().entrySet()) {
+            keys[c] = e.getKey();
+            index.put(e.getKey(), c);
+            TOMLSchema.Type t = types[c] = TOMLSchema.Type.of(e.getValue());
+            data[c] = switch (t) {
+                case INTEGER -> new long[THRESHOLD];
+                case FLOAT -> new double[THRESHOLD];
+                case BOOLEAN -> new boolean[THRESHOLD];
+                default -> new CharSequence[THRESHOLD];
+            };
+            if (t == TOMLSchema.Type.INTEGER || t == TOMLSchema.Type.FLOAT)
+                wide[c] = new BitSet();
+            c++;
+        }
+    }
+
+    /**
+     * @param elements the elements to store
+     * @return the elements stored by columns, or null if they don't all have the same shape
+     */
+    static TOMLColumns pack(List<TOMLObject> elements) {
+        if (!(elements.get(0) instanceof TOMLTable first))
+            return null;
+        for (TOMLObject o : first.children().values())
+            if (!storable(o))
+                return null;
+        var c = new TOMLColumns(first);
+        for (TOMLObject o : elements)
+            if (!c.fits(o))
+                return null;
+        for (TOMLObject o : elements)
+            c.append(o.getAsTable());
+        return c;
+    }
+
+    private static boolean storable(TOMLObject o) {
+        return o instanceof TOMLPrimitive p && !p.isDateTime();
+    }
+
+    /**
+     * @return whether <code>o</code> could be stored with the other elements
+     */
+    boolean offer(TOMLObject o) {
+        if (!fits(o))
+            return false;
+        append(o.getAsTable());
+        return true;
+    }
+
+    private boolean fits(TOMLObject o) {
+        if (!(o instanceof TOMLTable t) || t.size() != keys.length)
+            return false;
+        for (Map.Entry<String, TOMLObject> e : t.children().entrySet()) {
+            Integer c = index.get(e.getKey());
+            if (c == null || !storable(e.getValue()) || TOMLSchema.Type.of(e.getValue()) != types[c])
+                return false;
+        }
+        return true;
+    }
+
+    private void append(TOMLTable t) {
+        int row = size;
+        if (row > 0 && keys.length > 0 && row == capacity())
+            for (int c = 0; c < data.length; c++)
+                data[c] = grow(data[c], row << 1);
+        for (Map.Entry<String, TOMLObject> e : t.children().entrySet()) {
+            int c = index.get(e.getKey());
+            TOMLPrimitive p = e.getValue().getAsPrimitive();
+            switch (types[c]) {
+                case INTEGER -> {
+                    ((long[]) data[c])[row] = p.asLong();
+                    if (p.isLong())
+                        wide[c].set(row);
+                }
+                case FLOAT -> {
+                    ((double[]) data[c])[row] = p.asDouble();
+                    if (p.isDouble())
+                        wide[c].set(row);
+                }
+                case BOOLEAN -> ((boolean[]) data[c])[row] = p.asBoolean();
+                default -> ((CharSequence[]) data[c])[row] = p.asCharSequence();
+            }
+        }
+        size++;
+    }
+
+    private int capacity() {
+        Object d = data[0];
+        return d instanceof long[] l ? l.length : d instanceof double[] a ? a.length
+                : d instanceof boolean[] b ? b.length : ((Object[]) d).length;
+    }
+
+    private static Object grow(Object d, int capacity) {
+        if (d instanceof long[] l)
+            return Arrays.copyOf(l, capacity);
+        if (d instanceof double[] a)
+            return Arrays.copyOf(a, capacity);
+        if (d instanceof boolean[] b)
+            return Arrays.copyOf(b, capacity);
+        return Arrays.copyOf((CharSequence[]) d, capacity);
+    }
+
+    /**
+     * @return the number of rows, that is of tables
+     */
+    public int size() {
+        return size;
+    }
+
+    public int columnCount() {
+        return keys.length;
+    }
+
+    /**
+     * @param key a key of the tables
+     * @return the index of its column, or -1 if the tables don't have that key
+     */
+    public int column(String key) {
+        Integer c = index.get(key);
+        return c == null ? -1 : c;
+    }
+
+    public String key(int column) {
+        return keys[column];
+    }
+
+    /**
+     * @return the type of the values of the column: {@link TOMLSchema.Type#INTEGER INTEGER},
+     * {@link TOMLSchema.Type#FLOAT FLOAT}, {@link TOMLSchema.Type#BOOLEAN BOOLEAN} or
+     * {@link TOMLSchema.Type#STRING STRING}
+     */
+    public TOMLSchema.Type type(int column) {
+        return types[column];
+    }
+
+    /**
+     * @throws ClassCastException if the column isn't an {@link TOMLSchema.Type#INTEGER INTEGER} one
+     */
+    public long getLong(int row, int column) {
+        return ((long[]) data[column])[check(row)];
+    }
+
+    /**
+     * @return the value of a {@link TOMLSchema.Type#FLOAT FLOAT} column, or of an
+     * {@link TOMLSchema.Type#INTEGER INTEGER} one as a double
+     * @throws ClassCastException if the column is of another type
+     */
+    public double getDouble(int row, int column) {
+        Object d = data[column];
+        return d instanceof long[] l ? l[check(row)] : ((double[]) d)[check(row)];
+    }
+
+    /**
+     * @throws ClassCastException if the column isn't a {@link TOMLSchema.Type#BOOLEAN BOOLEAN} one
+     */
+    public boolean getBoolean(int row, int column) {
+        return ((boolean[]) data[column])[check(row)];
+    }
+
+    /**
+     * @return the value of a {@link TOMLSchema.Type#STRING STRING} column, without copying it if it is stored
+     * off-heap
+     * @throws ClassCastException if the column isn't a {@link TOMLSchema.Type#STRING STRING} one
+     */
+    public CharSequence getString(int row, int column) {
+        return ((CharSequence[]) data[column])[check(row)];
+    }
+
+    /**
+     * @return the value of a cell, as a new primitive of the type it was parsed as
+     */
+    public TOMLPrimitive get(int row, int column) {
+        check(row);
+        return switch (types[column]) {
+            case INTEGER -> {
+                long v = ((long[]) data[column])[row];
+                yield wide[column].get(row) ? new TOMLPrimitive.TOMLLong(v) : new TOMLPrimitive.TOMLInt((int) v);
+            }
+            case FLOAT -> {
+                double v = ((double[]) data[column])[row];
+                yield wide[column].get(row) ? new TOMLPrimitive.TOMLDouble(v)
+                        : new TOMLPrimitive.TOMLFloat((float) v);
+            }
+            case BOOLEAN -> new TOMLPrimitive.TOMLBoolean(((boolean[]) data[column])[row]);
+            default -> new TOMLPrimitive.TOMLString(((CharSequence[]) data[column])[row]);
+        };
+    }
+
+    private int check(int row) {
+        if (row < 0 || row >= size)
+            throw new IndexOutOfBoundsException(row);
+        return row;
+    }
+
+    /**
+     * @return the length of the arrays of the columns, for {@link TOMLFootprint}
+     */
+    int capacityForFootprint() {
+        return keys.length == 0 ? 0 : capacity();
+    }
+
+    Object columnData(int column) {
+        return data[column];
+    }
+
+    /**
+     * @return the elements, back on the heap
+     */
+    List<TOMLObject> unpack() {
+        return new ArrayList<>(rows);
+    }
+
+    /**
+     * The rows as tables, built at each access.
+     */
+    final class Rows extends AbstractList<TOMLObject> {
+        @Override
+        public TOMLObject get(int row) {
+            check(row);
+            var t = new TOMLTable();
+            for (int c = 0; c < keys.length; c++)
+                t.children().put(keys[c], TOMLColumns.this.get(row, c));
+            return t;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
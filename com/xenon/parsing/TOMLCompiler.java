@@ -0,0 +1,424 @@
+package com.xenon.parsing;
+
+import javax.lang.model.SourceVersion;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Build step compiling a TOML file into a Java class of constants, so that nothing is parsed at run time.
+ * <pre><code>
+ *     java com.xenon.parsing.TOMLCompiler config.toml com.example.Config target/generated-sources
+ * </code></pre>
+ * Each table becomes a nested class of <code>public static final</code> fields, typed after their values:
+ * <code>String</code>, <code>int</code>, <code>long</code>, <code>float</code>, <code>double</code>,
+ * <code>boolean</code>, <code>java.time</code> types for dates and times, and arrays of those. The tables of an
+ * array become instances of a class holding the union of their keys, boxed when some tables lack them.
+ * Values of mixed types are typed <code>Object</code>, tables among them becoming <code>Map</code>s.
+ * Strings and numbers outside arrays are compile-time constants, inlined by javac.
+ * Keys are turned into valid Java identifiers, and fields are sorted by key so that the output is reproducible.
+ * As any Java class, the generated one can't have more than 64KB of array and object initializers.
+ */
+public final class TOMLCompiler {
+
+    private TOMLCompiler() {}
+
+    /**
+     * @param args the TOML file, the fully qualified name of the class to generate, and the source directory it
+     *             is generated into
+     */
+    public static void main(String[] args) throws IOException, ParsingException {
+        if (args.length != 3) {
+            System.err.println("Usage: TOMLCompiler <file.toml> <package.ClassName> <output directory>");
+            System.exit(2);
+        }
+        Path in = Path.of(args[0]);
+        Path out = Path.of(args[2], args[1].replace('.', '/') + ".java");
+        Files.createDirectories(out.getParent());
+        Files.writeString(out, compile(TOMLWorker.parse(in), args[1], in.getFileName().toString()));
+    }
+
+    /**
+     * @param root the parsed document
+     * @param qualifiedName the fully qualified name of the class to generate
+     * @param origin the name of the TOML file, for the header comment, or null
+     * @return the source of the class
+     */
+    public static String compile(TOMLTable root, String qualifiedName, String origin) {
+        int dot = qualifiedName.lastIndexOf('.');
+        String pkg = dot == -1 ? null : qualifiedName.substring(0, dot), name = qualifiedName.substring(dot + 1);
+        if (!SourceVersion.isName(qualifiedName))
+            throw new IllegalArgumentException("Invalid class name: " + qualifiedName);
+        var sb = new StringBuilder();
+        sb.append("// Generated").append(origin == null ? "" : " from " + origin)
+                .append(" by TOMLCompiler, do not edit.\n");
+        if (pkg != null)
+            sb.append("package ").append(pkg).append(";\n");
+        sb.append('\n');
+        Set<String> enclosing = new HashSet<>();
+        enclosing.add(name);
+        holder(sb, root, name, 0, enclosing);
+        return sb.toString();
+    }
+
+    /*
+     * Types
+     */
+
+    private sealed interface Type permits Scalar, Array, Record {}
+
+    private record Scalar(String name, String boxed) implements Type {}
+
+    private record Array(Type element) implements Type {}
+
+    /**
+     * Class of the tables found in arrays.
+     */
+    private static final class Record implements Type {
+        String name;
+        final Map<String, Type> fields = new TreeMap<>();
+        final Set<String> optional = new HashSet<>();
+    }
+
+    private static final Scalar STRING = new Scalar("String", "String"), INT = new Scalar("int", "Integer"),
+            LONG = new Scalar("long", "Long"), FLOAT = new Scalar("float", "Float"),
+            DOUBLE = new Scalar("double", "Double"), BOOLEAN = new Scalar("boolean", "Boolean"),
+            OFFSET_DATE_TIME = new Scalar("java.time.OffsetDateTime", "java.time.OffsetDateTime"),
+            LOCAL_DATE_TIME = new Scalar("java.time.LocalDateTime", "java.time.LocalDateTime"),
+            LOCAL_DATE = new Scalar("java.time.LocalDate", "java.time.LocalDate"),
+            LOCAL_TIME = new Scalar("java.time.LocalTime", "java.time.LocalTime"),
+            OBJECT = new Scalar("Object", "Object");
+
+    /**
+     * @return the most precise type all <code>values</code> fit in
+     */
+    private static Type infer(List<TOMLObject> values, String nameHint) {
+        if (values.isEmpty())
+            return OBJECT;
+        TOMLObject first = values.get(0);
+        if (first instanceof TOMLTable) {
+            var r = new Record();
+            r.name = nameHint;
+            Map<String, List<TOMLObject>> byKey = new TreeMap<>();
+            for (TOMLObject o : values) {
+                if (!(o instanceof TOMLTable t))
+                    return OBJECT;
+                for (Map.Entry<String, TOMLObject> e : t.children().entrySet())
+                    byKey.computeIfAbsent(e.getKey(), k -> new ArrayList<>()).add(e.getValue());
+            }
+            for (Map.Entry<String, List<TOMLObject>> e : byKey.entrySet()) {
+                r.fields.put(e.getKey(), infer(e.getValue(), className(e.getKey())));
+                if (e.getValue().size() < values.size())
+                    r.optional.add(e.getKey());
+            }
+            return r;
+        }
+        if (first instanceof TOMLArray) {
+            List<TOMLObject> elements = new ArrayList<>();
+            for (TOMLObject o : values) {
+                if (!(o instanceof TOMLArray a))
+                    return OBJECT;
+                for (TOMLObject e : a)
+                    elements.add(e);
+            }
+            return new Array(infer(elements, nameHint));
+        }
+        Scalar s = null;
+        for (TOMLObject o : values) {
+            if (!(o instanceof TOMLPrimitive p))
+                return OBJECT;
+            Scalar t = scalar(p);
+            if (s == null || s == t)
+                s = t;
+            else if ((s == INT || s == LONG) && (t == INT || t == LONG))
+                s = LONG;
+            else if ((s == FLOAT || s == DOUBLE) && (t == FLOAT || t == DOUBLE))
+                s = DOUBLE;
+            else return OBJECT;
+        }
+        return s;
+    }
+
+    private static Scalar scalar(TOMLPrimitive p) {
+        if (p.isString())
+            return STRING;
+        if (p.isInt())
+            return INT;
+        if (p.isLong())
+            return LONG;
+        if (p.isFloat())
+            return FLOAT;
+        if (p.isDouble())
+            return DOUBLE;
+        if (p.isBoolean())
+            return BOOLEAN;
+        return switch (p.getAsDateTime().kind()) {
+            case OFFSET_DATE_TIME -> OFFSET_DATE_TIME;
+            case LOCAL_DATE_TIME -> LOCAL_DATE_TIME;
+            case LOCAL_DATE -> LOCAL_DATE;
+            case LOCAL_TIME -> LOCAL_TIME;
+        };
+    }
+
+    private static String typeName(Type t, boolean boxed) {
+        if (t instanceof Scalar s)
+            return boxed ? s.boxed : s.name;
+        if (t instanceof Array a)
+            return typeName(a.element, false) + "[]";
+        return ((Record) t).name;
+    }
+
+    /*
+     * Classes
+     */
+
+    /**
+     * Writes a table as a class of static fields.
+     */
+    private static void holder(StringBuilder sb, TOMLTable table, String name, int indent, Set<String> enclosing) {
+        indent(sb, indent).append(indent == 0 ? "public final class " : "public static final class ")
+                .append(name).append(" {\n\n");
+        indent(sb, indent + 1).append("private ").append(name).append("() {}\n\n");
+        Set<String> fieldNames = new HashSet<>(), classNames = new HashSet<>(enclosing);
+        Map<String, TOMLTable> tables = new TreeMap<>();
+        List<Record> records = new ArrayList<>();
+        for (Map.Entry<String, TOMLObject> e : new TreeMap<>(table.children()).entrySet()) {
+            if (e.getValue() instanceof TOMLTable t) {
+                tables.put(e.getKey(), t);
+                continue;
+            }
+            Type type = infer(List.of(e.getValue()), className(e.getKey()));
+            collect(type, records, classNames);
+            indent(sb, indent + 1).append("public static final ").append(typeName(type, false)).append(' ')
+                    .append(unique(ident(e.getKey()), fieldNames)).append(" = ");
+            literal(sb, e.getValue(), type);
+            sb.append(";\n");
+        }
+        for (Record r : records)
+            record(sb, r, indent + 1);
+        for (Map.Entry<String, TOMLTable> e : tables.entrySet()) {
+            sb.append('\n');
+            String n = unique(className(e.getKey()), classNames);
+            Set<String> inner = new HashSet<>(enclosing);
+            inner.add(n);
+            holder(sb, e.getValue(), n, indent + 1, inner);
+        }
+        indent(sb, indent).append("}\n");
+    }
+
+    /**
+     * Names the records of <code>t</code>, and of its fields, and adds them to <code>records</code>.
+     */
+    private static void collect(Type t, List<Record> records, Set<String> classNames) {
+        if (t instanceof Array a)
+            collect(a.element, records, classNames);
+        else if (t instanceof Record r) {
+            r.name = unique(r.name, classNames);
+            records.add(r);
+            for (Type f : r.fields.values())
+                collect(f, records, classNames);
+        }
+    }
+
+    private static void record(StringBuilder sb, Record r, int indent) {
+        sb.append('\n');
+        indent(sb, indent).append("public static final class ").append(r.name).append(" {\n");
+        Set<String> names = new HashSet<>();
+        List<String> idents = new ArrayList<>();
+        for (Map.Entry<String, Type> f : r.fields.entrySet()) {
+            String id = unique(ident(f.getKey()), names);
+            idents.add(id);
+            indent(sb, indent + 1).append("public final ").append(typeName(f.getValue(), r.optional.contains(f.getKey())))
+                    .append(' ').append(id).append(";\n");
+        }
+        sb.append('\n');
+        indent(sb, indent + 1).append(r.name).append('(');
+        int i = 0;
+        for (Map.Entry<String, Type> f : r.fields.entrySet()) {
+            if (i != 0)
+                sb.append(", ");
+            sb.append(typeName(f.getValue(), r.optional.contains(f.getKey()))).append(' ').append(idents.get(i++));
+        }
+        sb.append(") {\n");
+        for (String id : idents)
+            indent(sb, indent + 2).append("this.").append(id).append(" = ").append(id).append(";\n");
+        indent(sb, indent + 1).append("}\n");
+        indent(sb, indent).append("}\n");
+    }
+
+    /*
+     * Literals
+     */
+
+    private static void literal(StringBuilder sb, TOMLObject v, Type t) {
+        if (v == null)
+            sb.append("null");
+        else if (t == OBJECT)
+            object(sb, v);
+        else if (t instanceof Scalar s)
+            scalar(sb, v.getAsPrimitive(), s);
+        else if (t instanceof Array a) {
+            sb.append("new ").append(typeName(t, false)).append('{');
+            int i = 0;
+            for (TOMLObject e : v.getAsArray()) {
+                if (i++ != 0)
+                    sb.append(", ");
+                literal(sb, e, a.element);
+            }
+            sb.append('}');
+        } else {
+            Record r = (Record) t;
+            Map<String, TOMLObject> children = v.getAsTable().children();
+            sb.append("new ").append(r.name).append('(');
+            int i = 0;
+            for (Map.Entry<String, Type> f : r.fields.entrySet()) {
+                if (i++ != 0)
+                    sb.append(", ");
+                literal(sb, children.get(f.getKey()), f.getValue());
+            }
+            sb.append(')');
+        }
+    }
+
+    /**
+     * Writes a value whose static type is <code>Object</code>.
+     */
+    private static void object(StringBuilder sb, TOMLObject v) {
+        if (v instanceof TOMLPrimitive p)
+            scalar(sb, p, scalar(p));
+        else if (v instanceof TOMLArray a) {
+            sb.append("new Object[]{");
+            int i = 0;
+            for (TOMLObject e : a) {
+                if (i++ != 0)
+                    sb.append(", ");
+                object(sb, e);
+            }
+            sb.append('}');
+        } else {
+            sb.append("java.util.Map.ofEntries(");
+            int i = 0;
+            for (Map.Entry<String, TOMLObject> e : new TreeMap<>(v.getAsTable().children()).entrySet()) {
+                if (i++ != 0)
+                    sb.append(", ");
+                sb.append("java.util.Map.entry(");
+                string(sb, e.getKey());
+                sb.append(", ");
+                object(sb, e.getValue());
+                sb.append(')');
+            }
+            sb.append(')');
+        }
+    }
+
+    private static void scalar(StringBuilder sb, TOMLPrimitive p, Scalar s) {
+        if (s == STRING)
+            string(sb, p.asString());
+        else if (s == INT)
+            sb.append(p.asInt());
+        else if (s == LONG)
+            sb.append(p.asLong()).append('L');
+        else if (s == FLOAT)
+            number(sb, p.asFloat(), "Float", "f");
+        else if (s == DOUBLE)   // through the float's decimal form, so that 0.1f gives 0.1
+            number(sb, p.isFloat() ? Double.parseDouble(Float.toString(p.asFloat())) : p.asDouble(), "Double", "");
+        else if (s == BOOLEAN)
+            sb.append(p.asBoolean());
+        else {
+            TOMLPrimitive.TOMLDateTime d = p.getAsDateTime();
+            switch (d.kind()) {
+                case LOCAL_DATE -> sb.append("java.time.LocalDate.ofEpochDay(")
+                        .append(d.toLocalDate().toEpochDay()).append("L)");
+                case LOCAL_TIME -> sb.append("java.time.LocalTime.ofNanoOfDay(")
+                        .append(d.toLocalTime().toNanoOfDay()).append("L)");
+                case LOCAL_DATE_TIME -> dateTime(sb, d.toLocalDateTime());
+                case OFFSET_DATE_TIME -> {
+                    OffsetDateTime o = d.toOffsetDateTime();
+                    sb.append("java.time.OffsetDateTime.of(");
+                    dateTime(sb, o.toLocalDateTime());
+                    sb.append(", java.time.ZoneOffset.ofTotalSeconds(").append(o.getOffset().getTotalSeconds())
+                            .append("))");
+                }
+            }
+        }
+    }
+
+    private static void dateTime(StringBuilder sb, LocalDateTime t) {
+        sb.append("java.time.LocalDateTime.of(java.time.LocalDate.ofEpochDay(").append(t.toLocalDate().toEpochDay())
+                .append("L), java.time.LocalTime.ofNanoOfDay(").append(t.toLocalTime().toNanoOfDay()).append("L))");
+    }
+
+    private static void number(StringBuilder sb, double d, String boxed, String suffix) {
+        if (Double.isNaN(d))
+            sb.append(boxed).append(".NaN");
+        else if (Double.isInfinite(d))
+            sb.append(boxed).append(d > 0 ? ".POSITIVE_INFINITY" : ".NEGATIVE_INFINITY");
+        else sb.append(suffix.isEmpty() ? Double.toString(d) : Float.toString((float) d)).append(suffix);
+    }
+
+    private static void string(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0, len = s.length(); i < len; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20 || c > 0x7e)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    /*
+     * Names
+     */
+
+    private static String ident(String key) {
+        var sb = new StringBuilder(key.length() + 1);
+        for (int i = 0, len = key.length(); i < len; i++) {
+            char c = key.charAt(i);
+            sb.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+        if (sb.length() == 0 || !Character.isJavaIdentifierStart(sb.charAt(0)))
+            sb.insert(0, '_');
+        String s = sb.toString();
+        return SourceVersion.isKeyword(s) || s.equals("_") ? s + '_' : s;
+    }
+
+    private static String className(String key) {
+        String s = ident(key);
+        return Character.toUpperCase(s.charAt(0)) + s.substring(1);
+    }
+
+    /**
+     * @return <code>name</code>, or <code>name</code> followed by a number if it is already in <code>used</code>
+     */
+    private static String unique(String name, Set<String> used) {
+        String n = name;
+        for (int i = 2; !used.add(n); i++)
+            n = name + i;
+        return n;
+    }
+
+    private static StringBuilder indent(StringBuilder sb, int indent) {
+        for (int i = 0; i < indent; i++)
+            sb.append("    ");
+        return sb;
+    }
+}
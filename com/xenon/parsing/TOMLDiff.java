@@ -0,0 +1,105 @@
+package com.xenon.parsing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Differences between two snapshots of a TOML document, as lists of key paths.
+ * Paths are dotted keys, with the index of array elements between brackets, e.g. <code>servers[2].port</code>.
+ * Subtrees with the same {@link TOMLObject#structuralHash() structural hash} are skipped without being walked,
+ * so comparing two large documents only costs as much as the parts that differ.
+ */
+public final class TOMLDiff {
+
+    private final List<String> changed = new ArrayList<>(), added = new ArrayList<>(), removed = new ArrayList<>();
+
+    private TOMLDiff() {}
+
+    /**
+     * Computes the differences between two tables.
+     * Tables and arrays present on both sides are compared element by element;
+     * any other value, or a value whose kind changed, is reported as changed.
+     * @param old the old snapshot
+     * @param new_ the new snapshot
+     * @return the differences
+     */
+    public static TOMLDiff between(TOMLTable old, TOMLTable new_) {
+        var diff = new TOMLDiff();
+        diff.tables("", old, new_);
+        return diff;
+    }
+
+    private void tables(String path, TOMLTable old, TOMLTable new_) {
+        if (same(old, new_))
+            return;
+        Map<String, TOMLObject> o = old.children(), n = new_.children();
+        for (Map.Entry<String, TOMLObject> e : o.entrySet()) {
+            String key = path.isEmpty() ? e.getKey() : path + '.' + e.getKey();
+            TOMLObject nv = n.get(e.getKey());
+            if (nv == null)
+                removed.add(key);
+            else
+                values(key, e.getValue(), nv);
+        }
+        for (String k : n.keySet())
+            if (!o.containsKey(k))
+                added.add(path.isEmpty() ? k : path + '.' + k);
+    }
+
+    private void arrays(String path, TOMLArray old, TOMLArray new_) {
+        if (same(old, new_))
+            return;
+        int os = old.size(), ns = new_.size(), common = Math.min(os, ns);
+        for (int i = 0; i < common; i++)
+            values(path + '[' + i + ']', old.get(i), new_.get(i));
+        for (int i = common; i < os; i++)
+            removed.add(path + '[' + i + ']');
+        for (int i = common; i < ns; i++)
+            added.add(path + '[' + i + ']');
+    }
+
+    private void values(String path, TOMLObject old, TOMLObject new_) {
+        if (old instanceof TOMLTable ot && new_ instanceof TOMLTable nt)
+            tables(path, ot, nt);
+        else if (old instanceof TOMLArray oa && new_ instanceof TOMLArray na)
+            arrays(path, oa, na);
+        else if (!same(old, new_))
+            changed.add(path);
+    }
+
+    private static boolean same(TOMLObject old, TOMLObject new_) {
+        return old == new_ || old.structuralHash() == new_.structuralHash() && old.getClass() == new_.getClass();
+    }
+
+    /**
+     * @return the paths present in both snapshots with different values
+     */
+    public List<String> changed() {
+        return Collections.unmodifiableList(changed);
+    }
+
+    /**
+     * @return the paths only present in the new snapshot
+     */
+    public List<String> added() {
+        return Collections.unmodifiableList(added);
+    }
+
+    /**
+     * @return the paths only present in the old snapshot
+     */
+    public List<String> removed() {
+        return Collections.unmodifiableList(removed);
+    }
+
+    public boolean isEmpty() {
+        return changed.isEmpty() && added.isEmpty() && removed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "changed=" + changed + ", added=" + added + ", removed=" + removed;
+    }
+}
@@ -0,0 +1,747 @@
+package com.xenon.parsing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * TOML document parsed lazily, one top-level key at a time.
+ * {@link #open(Path)} maps the file and only scans its bytes to find where the statements and table headers of each
+ * top-level key are. Nothing is decoded until a key is first {@link #get(String) looked up}: its statements and
+ * sections are then parsed together by the usual parser, and the result is cached.
+ * <pre><code>
+ *     TOMLDocument doc = TOMLDocument.open(path);
+ *     TOMLObject port = doc.get("server.port");    // only [server] and its subtables are parsed
+ * </code></pre>
+ * Errors, including those located in the parts of the document that were never looked up, are only reported
+ * when the part they're in is parsed. A TOMLDocument is thread-safe.
+ * <p>
+ * A value can also be changed without rewriting the file: {@link #patch(String, TOMLObject)} finds where it is
+ * written and gives the bytes to replace, leaving comments, ordering and formatting untouched.
+ * <pre><code>
+ *     TOMLDocument.open(path).patch("server.port", TOMLPrimitive.of(8081)).apply(path);
+ * </code></pre>
+ * A patch is applied to the file the document was opened from by writing a new file and moving it over the
+ * original, since the original is still mapped. This invalidates the document: its methods then throw an
+ * {@link IllegalStateException}, and it must be opened again. Windows doesn't let a mapped file be replaced, so
+ * documents whose file is patched there must be opened {@link #open(Path, ParseLimits, boolean) unmapped}.
+ */
+public final class TOMLDocument {
+
+    private final ByteBuffer bytes;
+    private final Path file;
+    private final ParseLimits limits;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();  // written once a patch modifies the file
+    private volatile boolean invalid;
+    private final Map<String, Unit> units = new LinkedHashMap<>();
+    private int rootEnd;    // end of the last statement before the first header
+
+    private TOMLDocument(ByteBuffer bytes, Path file, ParseLimits limits) {
+        this.bytes = bytes;
+        this.file = file;
+        this.limits = limits;
+    }
+
+    /**
+     * @param tomlFile the file to open
+     * @return the indexed document
+     * @throws ParsingException if the file can't be read or exceeds {@link ParseLimits#DEFAULT}
+     */
+    public static TOMLDocument open(Path tomlFile) throws ParsingException {
+        return open(tomlFile, ParseLimits.DEFAULT);
+    }
+
+    /**
+     * @param tomlFile the file to open
+     * @param limits the limits of the whole document, for its length, and of every part parsed
+     * @return the indexed document
+     * @throws ParsingException if the file can't be read or is too long
+     */
+    public static TOMLDocument open(Path tomlFile, ParseLimits limits) throws ParsingException {
+        return open(tomlFile, limits, true);
+    }
+
+    /**
+     * @param tomlFile the file to open
+     * @param limits the limits of the whole document, for its length, and of every part parsed
+     * @param mapped whether to map the file, rather than reading it whole in the heap, which leaves the file free to
+     *               be replaced by a {@link Patch}
+     * @return the indexed document
+     * @throws ParsingException if the file can't be read or is too long
+     */
+    public static TOMLDocument open(Path tomlFile, ParseLimits limits, boolean mapped) throws ParsingException {
+        ByteBuffer b;
+        try (FileChannel ch = FileChannel.open(tomlFile)) {
+            long size = ch.size();
+            if (size > limits.maxDocumentLength() || size > Integer.MAX_VALUE)
+                throw ParsingException.because("Document of " + size + " bytes exceeds the limit of "
+                        + Math.min(limits.maxDocumentLength(), Integer.MAX_VALUE) + " bytes");
+            if (mapped)
+                b = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            else if (!read(ch, b = ByteBuffer.allocate((int) size), 0))
+                throw ParsingException.because("File truncated while read");
+            else b.flip();
+        } catch (IOException e) {
+            throw ParsingException.from(e);
+        }
+        var doc = new TOMLDocument(b, tomlFile, limits);
+        doc.index();
+        return doc;
+    }
+
+    /**
+     * Gets the value associated with a key, parsing the part of the document of its first segment if needed.
+     * @param key the (dotted) key
+     * @return the value associated with <code>key</code>, or null if there is none
+     * @throws ParsingException if the part of the document holding <code>key</code> is malformed
+     * @throws IllegalStateException if a patch was applied to the file of the document
+     * @see TOMLTable#get(String)
+     */
+    public TOMLObject get(String key) throws ParsingException {
+        check();
+        int dot = key.indexOf('.');
+        Unit u = units.get(dot == -1 ? key : key.substring(0, dot));
+        return u == null ? null : u.table(this).get(key);
+    }
+
+    public boolean contains(String key) throws ParsingException {
+        return get(key) != null;
+    }
+
+    /**
+     * @return an unmodifiable view of the top-level keys, known without parsing anything
+     */
+    public Set<String> keySet() {
+        check();
+        return Collections.unmodifiableSet(units.keySet());
+    }
+
+    /**
+     * Parses what's left of the document.
+     * @return the root table, sharing its values with the ones already returned
+     * @throws ParsingException if the document is malformed
+     */
+    public TOMLTable toTable() throws ParsingException {
+        check();
+        var root = new TOMLTable();
+        for (Unit u : units.values())
+            root.children().putAll(u.table(this).children());
+        return root;
+    }
+
+    /**
+     * Computes the edit setting a key to a value. An existing value is replaced where it is written, a missing key
+     * is added at the end of the deepest table header declaring one of its parents, or of the top-level statements.
+     * Only the statements of the key's first segment are scanned, and nothing is parsed.
+     * @param key the (dotted) key
+     * @param value the new value, written as TOML
+     * @return the patch, to apply to the bytes of this document
+     * @throws ParsingException if the key is a table declared by a header, lies in an inline table or in an
+     * array of tables, in which cases the patch wouldn't be local
+     */
+    public Patch patch(String key, TOMLObject value) throws ParsingException {
+        lock.readLock().lock();
+        try {
+            check();
+            return scan(key, value);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Patch scan(String key, TOMLObject value) throws ParsingException {
+        String[] path = key.split("\\.");
+        var text = new StringBuilder();
+        write(text, value);
+        ByteBuffer b = bytes;
+        int insert = rootEnd, declared = 0;  // where to add the key if missing, and how much of it is declared there
+        Unit u = units.get(path[0]);
+        for (int r = 0, count = u == null ? 0 : u.count; r < count; r += 2) {
+            int i = u.ranges[r], n = u.ranges[r + 1];
+            List<String> header = new ArrayList<>();
+            boolean candidate = false;
+            while (i < n) {
+                i = skipBlank(b, i, n);
+                if (i == n)
+                    break;
+                byte c = b.get(i);
+                if (c == '\n' || c == '\r' || c == '#') {
+                    i = endOfLine(b, i, n) + 1;
+                    continue;
+                }
+                if (c == '[') {
+                    boolean records = i + 1 < n && b.get(i + 1) == '[';
+                    header.clear();
+                    segments(b, i + (records ? 2 : 1), n, header);
+                    int common = common(header, path);
+                    if (common == header.size()) {
+                        if (records)
+                            throw ParsingException.because("Key " + key + " is in the array of tables "
+                                    + String.join(".", header) + ", which can't be patched");
+                        if (common == path.length)
+                            throw ParsingException.because("Key " + key + " is a table declared by a header, only "
+                                    + "values can be patched");
+                    }
+                    i = endOfStatement(b, i, n);
+                    candidate = common == header.size() && common >= declared;
+                    if (candidate) {
+                        insert = i;
+                        declared = common;
+                    }
+                    continue;
+                }
+                List<String> full = new ArrayList<>(header);
+                int eq = skipBlank(b, segments(b, i, n, full), n);
+                int end = endOfStatement(b, i, n);
+                if (eq < n && b.get(eq) == '=' && common(full, path) == full.size() && full.size() <= path.length) {
+                    if (full.size() < path.length)
+                        throw ParsingException.because("Key " + key + " is inside the inline value of "
+                                + String.join(".", full) + ", which can't be patched");
+                    int s = skipBlank(b, eq + 1, n);
+                    return new Patch(s, endOfValue(b, s, n), text.toString());
+                }
+                if (candidate)
+                    insert = end;
+                i = end;
+            }
+        }
+        var line = new StringBuilder();
+        if (insert > 0 && b.get(insert - 1) != '\n')
+            line.append('\n');
+        for (int i = declared; i < path.length; i++) {
+            if (i != declared)
+                line.append('.');
+            key(line, path[i]);
+        }
+        line.append(" = ").append(text).append('\n');
+        return new Patch(insert, insert, line.toString());
+    }
+
+    /**
+     * Replacement of a byte range of a document by new bytes.
+     * Patches computed on the same document must be applied from the last offset to the first, since a patch
+     * moves the bytes after it. Applying one to the file of the document invalidates the document, which must be
+     * opened again to see the changes; the other patches computed on it can still be applied.
+     */
+    public final class Patch {
+
+        private final int offset;
+        private final byte[] original, replacement;
+
+        private Patch(int start, int end, String replacement) {
+            this.offset = start;
+            this.original = new byte[end - start];
+            bytes.get(start, original);
+            this.replacement = replacement.getBytes(StandardCharsets.UTF_8);
+        }
+
+        public int offset() {
+            return offset;
+        }
+
+        /**
+         * @return the number of bytes replaced, 0 when a key is added
+         */
+        public int length() {
+            return original.length;
+        }
+
+        public String replacement() {
+            return new String(replacement, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @param source the bytes the document was opened from
+         * @return a copy of <code>source</code> with the patch applied
+         * @throws ParsingException if <code>source</code> doesn't hold the replaced bytes at {@link #offset()}
+         */
+        public byte[] apply(byte[] source) throws ParsingException {
+            if (source.length < offset + original.length
+                    || !Arrays.equals(source, offset, offset + original.length, original, 0, original.length))
+                throw ParsingException.because("Source changed since the document was opened");
+            byte[] r = new byte[source.length - original.length + replacement.length];
+            System.arraycopy(source, 0, r, 0, offset);
+            System.arraycopy(replacement, 0, r, offset, replacement.length);
+            System.arraycopy(source, offset + original.length, r, offset + replacement.length,
+                    source.length - offset - original.length);
+            return r;
+        }
+
+        /**
+         * Applies the patch to a file. When the replacement has the length of the replaced bytes, only those are
+         * written; otherwise the rest of the file is moved, 64KB at a time. The file of the document itself is
+         * replaced by a patched copy instead, so that the file isn't truncated while it is mapped.
+         * @param file the file the document was opened from
+         * @throws ParsingException if the file can't be written, or doesn't hold the replaced bytes at
+         * {@link #offset()}
+         */
+        public void apply(Path file) throws ParsingException {
+            boolean own;
+            try {
+                own = Files.isSameFile(file, TOMLDocument.this.file);
+            } catch (IOException e) {
+                own = true;     // can't tell, better safe
+            }
+            if (!own) {
+                rewrite(file);
+                return;
+            }
+            lock.writeLock().lock();    // waits for the parts being parsed from the mapped file
+            try {
+                invalid = true;
+                replace(file);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void rewrite(Path file) throws ParsingException {
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long size = ch.size();
+                ByteBuffer current = ByteBuffer.allocate(original.length);
+                if (size < offset + original.length || !read(ch, current, offset)
+                        || !Arrays.equals(current.array(), original))
+                    throw ParsingException.because("File changed since the document was opened");
+                long tail = offset + original.length;
+                int delta = replacement.length - original.length;
+                ByteBuffer buf = delta == 0 ? null : ByteBuffer.allocate((int) Math.min(1 << 16, size - tail));
+                if (delta > 0) {     // from the end, not to overwrite what's left to move
+                    for (long end = size; end > tail; ) {
+                        buf.clear().limit((int) Math.min(buf.capacity(), end - tail));
+                        long from = end - buf.limit();
+                        read(ch, buf, from);
+                        write(ch, buf.flip(), from + delta);
+                        end = from;
+                    }
+                } else if (delta < 0) {
+                    for (long from = tail; from < size; from += buf.limit()) {
+                        buf.clear().limit((int) Math.min(buf.capacity(), size - from));
+                        read(ch, buf, from);
+                        write(ch, buf.flip(), from + delta);
+                    }
+                }
+                write(ch, ByteBuffer.wrap(replacement), offset);
+                if (delta < 0)
+                    ch.truncate(size + delta);
+            } catch (IOException e) {
+                throw ParsingException.from(e);
+            }
+        }
+
+        /**
+         * Writes the patched file next to <code>file</code>, with the same permissions, and moves it over
+         * <code>file</code>.
+         */
+        private void replace(Path file) throws ParsingException {
+            Path copy = null;
+            try {
+                Path dir = file.toAbsolutePath().getParent();
+                copy = Files.createTempFile(dir, file.getFileName().toString(), ".patch");
+                PosixFileAttributeView view = Files.getFileAttributeView(file, PosixFileAttributeView.class);
+                if (view != null)
+                    Files.setPosixFilePermissions(copy, view.readAttributes().permissions());
+                try (FileChannel in = FileChannel.open(file);
+                     FileChannel out = FileChannel.open(copy, StandardOpenOption.WRITE)) {
+                    long size = in.size();
+                    ByteBuffer current = ByteBuffer.allocate(original.length);
+                    if (size < offset + original.length || !read(in, current, offset)
+                            || !Arrays.equals(current.array(), original))
+                        throw ParsingException.because("File changed since the document was opened");
+                    copy(in, 0, offset, out);
+                    write(out, ByteBuffer.wrap(replacement), offset);
+                    out.position(offset + replacement.length);
+                    copy(in, offset + original.length, size, out);
+                    out.force(false);
+                }
+                Files.move(copy, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                copy = null;
+            } catch (IOException e) {
+                throw ParsingException.from(e);
+            } finally {
+                if (copy != null)
+                    try {
+                        Files.deleteIfExists(copy);
+                    } catch (IOException ignored) {}
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Patch[" + offset + ", " + original.length + " bytes -> " + replacement() + "]";
+        }
+    }
+
+    /**
+     * @return false if the end of the file is reached before <code>b</code> is full
+     */
+    private static boolean read(FileChannel ch, ByteBuffer b, long position) throws IOException {
+        while (b.hasRemaining()) {
+            int r = ch.read(b, position + b.position());
+            if (r < 0)
+                return false;
+        }
+        return true;
+    }
+
+    private static void write(FileChannel ch, ByteBuffer b, long position) throws IOException {
+        while (b.hasRemaining())
+            ch.write(b, position + b.position());
+    }
+
+    /**
+     * Appends the bytes of <code>in</code> from <code>start</code> to <code>end</code> to <code>out</code>.
+     */
+    private static void copy(FileChannel in, long start, long end, FileChannel out) throws IOException {
+        while (start < end)
+            start += in.transferTo(start, end - start, out);
+    }
+
+    /**
+     * The statements and sections of a top-level key, as byte ranges.
+     */
+    private static final class Unit {
+        int[] ranges = new int[4];
+        int count;
+        private volatile TOMLTable table;
+
+        void add(int start, int end) {
+            if (count == ranges.length)
+                ranges = Arrays.copyOf(ranges, count * 2);
+            ranges[count++] = start;
+            ranges[count++] = end;
+        }
+
+        /**
+         * @return a table holding only this unit's top-level key
+         */
+        TOMLTable table(TOMLDocument doc) throws ParsingException {
+            TOMLTable t = table;
+            if (t == null) {
+                synchronized (this) {
+                    if ((t = table) == null)
+                        table = t = doc.parse(this);
+                }
+            }
+            return t;
+        }
+    }
+
+    private TOMLTable parse(Unit u) throws ParsingException {
+        var sb = new StringBuilder();
+        lock.readLock().lock();
+        try {
+            check();
+            for (int i = 0; i < u.count; i += 2) {
+                int s = u.ranges[i], e = u.ranges[i + 1];
+                CharBuffer chars = StandardCharsets.UTF_8.decode(bytes.slice(s, e - s));
+                sb.append(chars);
+                if (e == s || bytes.get(e - 1) != '\n')
+                    sb.append('\n');
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new TOMLParser(limits).reset(sb.toString()).parse();
+    }
+
+    /**
+     * @throws IllegalStateException if a patch was applied to the file, which the document doesn't show anymore
+     */
+    private void check() {
+        if (invalid)
+            throw new IllegalStateException("Document patched, open it again");
+    }
+
+    /*
+     * Structural scan. Statements are skipped with just enough knowledge of strings, comments and brackets to find
+     * where they end; the first segment of their key is the only thing read.
+     */
+
+    private void index() {
+        ByteBuffer b = bytes;
+        int n = b.limit(), i = 0, section_start = 0;
+        Unit section = null;
+        while (i < n) {
+            int line = i;
+            i = skipBlank(b, i, n);
+            if (i == n)
+                break;
+            byte c = b.get(i);
+            if (c == '\n' || c == '\r' || c == '#') {
+                i = endOfLine(b, i, n) + 1;
+                continue;
+            }
+            if (c == '[') {
+                if (section != null)
+                    section.add(section_start, line);
+                int s = i + 1;
+                if (s < n && b.get(s) == '[')
+                    s++;
+                section = unit(b, skipBlank(b, s, n), n);
+                section_start = line;
+                i = endOfStatement(b, i, n);
+                continue;
+            }
+            Unit key = section == null ? unit(b, i, n) : null;
+            i = endOfStatement(b, i, n);
+            if (key != null) {
+                key.add(line, i);
+                rootEnd = i;
+            }
+        }
+        if (section != null)
+            section.add(section_start, n);
+    }
+
+    private String lastKey;
+    private int lastStart, lastEnd;
+
+    /**
+     * Reads the first segment of the key starting at <code>i</code>, quotes excluded.
+     * @return the unit of that segment
+     */
+    private Unit unit(ByteBuffer b, int i, int n) {
+        int s = i, e;
+        byte q = i < n ? b.get(i) : 0;
+        if (q == '"' || q == '\'') {
+            e = ++s;
+            while (e < n && b.get(e) != q && b.get(e) != '.' && b.get(e) != '\n')
+                e++;
+        } else {
+            e = s;
+            for (byte c; e < n && (c = b.get(e)) != '.' && c != '=' && c != ']' && c != ' ' && c != '\t'
+                    && c != '\n' && c != '\r' && c != '#'; )
+                e++;
+        }
+        // consecutive [[records]] share their key
+        if (lastKey == null || e - s != lastEnd - lastStart
+                || b.slice(s, e - s).compareTo(b.slice(lastStart, lastEnd - lastStart)) != 0) {
+            byte[] k = new byte[e - s];
+            b.get(s, k);
+            lastKey = new String(k, StandardCharsets.UTF_8);
+            lastStart = s;
+            lastEnd = e;
+        }
+        return units.computeIfAbsent(lastKey, k -> new Unit());
+    }
+
+    /**
+     * @return the index following the end of the statement starting at <code>i</code>
+     */
+    private static int endOfStatement(ByteBuffer b, int i, int n) {
+        int depth = 0;
+        while (i < n) {
+            switch (b.get(i++)) {
+                case '\n' -> {
+                    if (depth <= 0)
+                        return i;
+                }
+                case '#' -> i = endOfLine(b, i, n);
+                case '[', '{' -> depth++;
+                case ']', '}' -> depth--;
+                case '"' -> i = skipString(b, i, n, (byte) '"');
+                case '\'' -> i = skipString(b, i, n, (byte) '\'');
+                default -> {}
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @param i the index following the opening quote
+     * @return the index following the closing quote, or of the end of the line for an unclosed string
+     */
+    private static int skipString(ByteBuffer b, int i, int n, byte q) {
+        boolean escapes = q == '"';
+        if (i + 1 < n && b.get(i) == q && b.get(i + 1) == q) {     // multiline
+            for (i += 2; i < n; ) {
+                byte c = b.get(i++);
+                if (c == '\\' && escapes)
+                    i++;
+                else if (c == q && i + 1 < n && b.get(i) == q && b.get(i + 1) == q) {
+                    i += 2;
+                    for (int extra = 0; extra < 2 && i < n && b.get(i) == q; extra++)
+                        i++;
+                    return i;
+                }
+            }
+            return n;
+        }
+        while (i < n) {
+            byte c = b.get(i);
+            if (c == '\n')
+                return i;
+            i++;
+            if (c == q)
+                return i;
+            if (c == '\\' && escapes)
+                i++;
+        }
+        return n;
+    }
+
+    /**
+     * @param i the index of the first byte of the value
+     * @return the index following the last byte of the value, comments and trailing blanks excluded
+     */
+    private static int endOfValue(ByteBuffer b, int i, int n) {
+        int depth = 0, end = i;
+        while (i < n) {
+            byte c = b.get(i);
+            if (depth <= 0 && (c == '\n' || c == '#'))
+                break;
+            i++;
+            switch (c) {
+                case '#' -> i = endOfLine(b, i, n);
+                case '[', '{' -> depth++;
+                case ']', '}' -> depth--;
+                case '"' -> i = skipString(b, i, n, (byte) '"');
+                case '\'' -> i = skipString(b, i, n, (byte) '\'');
+                default -> {}
+            }
+            if (c != ' ' && c != '\t' && c != '\r' && c != '\n')
+                end = i;
+        }
+        return end;
+    }
+
+    /**
+     * Reads a dotted key, quotes excluded from its segments.
+     * @return the index following the key
+     */
+    private static int segments(ByteBuffer b, int i, int n, List<String> out) {
+        while (true) {
+            i = skipBlank(b, i, n);
+            int s = i, e;
+            byte q = i < n ? b.get(i) : 0;
+            if (q == '"' || q == '\'') {
+                e = ++s;
+                while (e < n && b.get(e) != q && b.get(e) != '\n')
+                    e++;
+                i = Math.min(e + 1, n);
+            } else {
+                e = s;
+                for (byte c; e < n && ((c = b.get(e)) >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z'
+                        || c >= '0' && c <= '9' || c == '_' || c == '-'); )
+                    e++;
+                i = e;
+            }
+            byte[] k = new byte[e - s];
+            b.get(s, k);
+            out.add(new String(k, StandardCharsets.UTF_8));
+            i = skipBlank(b, i, n);
+            if (i == n || b.get(i) != '.')
+                return i;
+            i++;
+        }
+    }
+
+    /**
+     * @return the length of the common prefix of <code>a</code> and <code>b</code>
+     */
+    private static int common(List<String> a, String[] b) {
+        int i = 0;
+        while (i < a.size() && i < b.length && a.get(i).equals(b[i]))
+            i++;
+        return i;
+    }
+
+    /*
+     * TOML output of new values
+     */
+
+    private static void write(StringBuilder sb, TOMLObject o) {
+        if (o instanceof TOMLTable t) {
+            sb.append('{');
+            boolean first = true;
+            for (Map.Entry<String, TOMLObject> e : t.children().entrySet()) {
+                sb.append(first ? " " : ", ");
+                first = false;
+                key(sb, e.getKey());
+                sb.append(" = ");
+                write(sb, e.getValue());
+            }
+            sb.append(first ? "}" : " }");
+        } else if (o instanceof TOMLArray a) {
+            sb.append('[');
+            for (int i = 0, size = a.size(); i < size; i++) {
+                if (i != 0)
+                    sb.append(", ");
+                write(sb, a.get(i));
+            }
+            sb.append(']');
+        } else {
+            TOMLPrimitive p = o.getAsPrimitive();
+            if (p.isString())
+                string(sb, p.asCharSequence());
+            else if ((p.isDouble() || p.isFloat()) && !Double.isFinite(p.asDouble()))
+                sb.append(Double.isNaN(p.asDouble()) ? "nan" : p.asDouble() > 0 ? "inf" : "-inf");
+            else sb.append(p.asString());
+        }
+    }
+
+    private static void key(StringBuilder sb, String key) {
+        boolean bare = !key.isEmpty();
+        for (int i = 0, len = key.length(); i < len && bare; i++) {
+            char c = key.charAt(i);
+            bare = c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_' || c == '-';
+        }
+        if (bare)
+            sb.append(key);
+        else string(sb, key);
+    }
+
+    private static void string(StringBuilder sb, CharSequence s) {
+        sb.append('"');
+        for (int i = 0, len = s.length(); i < len; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                case '\b' -> sb.append("\\b");
+                case '\f' -> sb.append("\\f");
+                default -> {
+                    if (c < 0x20 || c == 0x7f)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    private static int skipBlank(ByteBuffer b, int i, int n) {
+        byte c;
+        while (i < n && ((c = b.get(i)) == ' ' || c == '\t'))
+            i++;
+        return i;
+    }
+
+    /**
+     * @return the index of the next <code>'\n'</code>, or <code>n</code>
+     */
+    private static int endOfLine(ByteBuffer b, int i, int n) {
+        while (i < n && b.get(i) != '\n')
+            i++;
+        return i;
+    }
+}
@@ -0,0 +1,272 @@
+package com.xenon.parsing;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimate of the heap a parsed tree retains, broken down by kind of object and by subtree.
+ * Sizes are computed from the layout of the objects on a 64-bit HotSpot VM with compressed references, the
+ * default below 32GB of heap: 12-byte headers, 4-byte references, objects aligned on 8 bytes. No agent nor heap
+ * dump is needed, and a tree is walked once.
+ * <pre><code>
+ *     System.out.println(TOMLFootprint.of(root, 2));    // totals, and the heaviest subtrees two levels deep
+ * </code></pre>
+ * Objects referenced from several places of the tree are counted at each of them, and so are the nodes a
+ * {@link PersistentTable} shares with its other versions. Elements of arrays kept in an {@link OffHeapStorage} are
+ * counted apart, in {@link #offHeapBytes()}.
+ * @see TOMLObject#estimateRetainedBytes()
+ */
+public final class TOMLFootprint {
+
+    public enum Kind {
+        /** TOMLTable and PersistentTable objects */
+        TABLES,
+        /** HashMap of the tables: the map, its bucket array and its entries, or the trie nodes of persistent ones */
+        MAP_OVERHEAD,
+        /** TOMLArray objects and their lists */
+        ARRAYS,
+        /** numbers, booleans, dates, and the wrappers of strings */
+        PRIMITIVES,
+        /** strings of the values */
+        STRINGS,
+        /** strings of the keys */
+        KEYS
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    // shallow sizes, see the class comment
+    private static final int TABLE = 32, HASH_MAP = 48, MAP_NODE = 32, ARRAY = 40, ARRAY_LIST = 24,
+            INT = 24, LONG = 32, BOOLEAN = 24, DATE_TIME = 32, STRING_WRAPPER = 24, STRING = 24,
+            NUMBERS = 32, BYTE_BUFFER = 64, OFF_HEAP_CHARS = 72, COLUMNS = 40, ROWS = 16, BIT_SET = 24,
+            PERSISTENT_TABLE = 32, TRIE_NODE = 24;
+
+    private final long[] bytes = new long[KINDS.length];
+    private long offHeap;
+    private final int depth;
+    private final List<Map.Entry<String, Long>> paths = new ArrayList<>();
+
+    private TOMLFootprint(int depth) {
+        this.depth = depth;
+    }
+
+    /**
+     * @param root the tree
+     * @return the footprint of <code>root</code> and of its direct children
+     */
+    public static TOMLFootprint of(TOMLObject root) {
+        return of(root, 1);
+    }
+
+    /**
+     * @param root the tree
+     * @param depth how deep subtrees are reported, 0 for none
+     * @return the footprint of <code>root</code> and of its subtrees down to <code>depth</code>
+     */
+    public static TOMLFootprint of(TOMLObject root, int depth) {
+        var f = new TOMLFootprint(depth);
+        f.walk(root, "", 0);
+        f.paths.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return f;
+    }
+
+    /**
+     * Retained size, without the breakdown.
+     */
+    static long retained(TOMLObject o) {
+        return new TOMLFootprint(0).walk(o, null, 0);
+    }
+
+    /**
+     * @return the estimated heap retained by the tree, in bytes
+     */
+    public long total() {
+        long t = 0;
+        for (long b : bytes)
+            t += b;
+        return t;
+    }
+
+    public long bytes(Kind kind) {
+        return bytes[kind.ordinal()];
+    }
+
+    /**
+     * @return the bytes of the elements of the tree held in an {@link OffHeapStorage}
+     */
+    public long offHeapBytes() {
+        return offHeap;
+    }
+
+    /**
+     * @return the retained size of each subtree down to the requested depth, the heaviest first; elements of
+     * arrays are named <code>key[index]</code>
+     */
+    public Map<String, Long> byPath() {
+        Map<String, Long> m = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> e : paths)
+            m.put(e.getKey(), e.getValue());
+        return m;
+    }
+
+    /**
+     * @return a report of the totals by kind and of the subtrees by size
+     */
+    @Override
+    public String toString() {
+        var sb = new StringBuilder();
+        long total = total();
+        sb.append(String.format("%-40s %12d bytes%n", "total", total));
+        for (Kind k : KINDS)
+            sb.append(String.format("  %-38s %12d bytes %5.1f%%%n", k, bytes[k.ordinal()],
+                    total == 0 ? 0 : 100.0 * bytes[k.ordinal()] / total));
+        if (offHeap != 0)
+            sb.append(String.format("%-40s %12d bytes%n", "off-heap", offHeap));
+        for (Map.Entry<String, Long> e : paths)
+            sb.append(String.format("%-40s %12d bytes %5.1f%%%n", e.getKey(), e.getValue(),
+                    total == 0 ? 0 : 100.0 * e.getValue() / total));
+        return sb.toString();
+    }
+
+    /**
+     * @param path the path of <code>o</code>, or null if subtrees aren't reported
+     * @param level the depth of <code>o</code>
+     * @return the retained size of <code>o</code>
+     */
+    private long walk(TOMLObject o, String path, int level) {
+        long size;
+        if (o instanceof TOMLTable t) {
+            Map<String, TOMLObject> children = t.children();
+            size = add(Kind.TABLES, TABLE)
+                    + add(Kind.MAP_OVERHEAD, HASH_MAP + hashTable(children.size()) + (long) MAP_NODE * children.size());
+            boolean report = path != null && level < depth;
+            for (Map.Entry<String, TOMLObject> e : children.entrySet()) {
+                size += add(Kind.KEYS, string(e.getKey()));
+                size += walk(e.getValue(), report ? path.isEmpty() ? e.getKey() : path + '.' + e.getKey() : null,
+                        level + 1);
+            }
+        } else if (o instanceof PersistentTable t) {
+            long[] s = {add(Kind.TABLES, PERSISTENT_TABLE)};
+            t.forEachNode(slots -> s[0] += add(Kind.MAP_OVERHEAD, TRIE_NODE + array(slots)));
+            boolean report = path != null && level < depth;
+            t.forEach((k, v) -> {
+                s[0] += add(Kind.KEYS, string(k));
+                s[0] += walk(v, report ? path.isEmpty() ? k : path + '.' + k : null, level + 1);
+            });
+            size = s[0];
+        } else if (o instanceof TOMLArray a) {
+            int n = a.size();
+            if (a.isOffHeap()) {
+                size = add(Kind.ARRAYS, ARRAY + NUMBERS + array(4 + (n >>> 13))
+                        + (long) BYTE_BUFFER * ((n + 8191) >>> 13));
+                offHeap += 8L * n;
+            } else if (a.columns() != null) {
+                size = add(Kind.ARRAYS, ARRAY) + columns(a.columns());
+            } else {
+                size = add(Kind.ARRAYS, ARRAY + ARRAY_LIST + array(listCapacity(n)));
+                boolean report = path != null && level < depth;
+                for (int i = 0; i < n; i++)
+                    size += walk(a.get(i), report ? path + '[' + i + ']' : null, level + 1);
+            }
+        } else {
+            TOMLPrimitive p = o.getAsPrimitive();
+            if (p.isString()) {
+                size = add(Kind.PRIMITIVES, STRING_WRAPPER);
+                CharSequence cs = p.asCharSequence();
+                if (cs instanceof String s)
+                    size += add(Kind.STRINGS, string(s));
+                else {
+                    size += add(Kind.STRINGS, OFF_HEAP_CHARS);
+                    offHeap += 2L * cs.length();
+                }
+            } else size = add(Kind.PRIMITIVES, p.isInt() || p.isFloat() ? INT : p.isBoolean() ? BOOLEAN
+                    : p.isDateTime() ? DATE_TIME : LONG);
+        }
+        if (path != null && level > 0)
+            paths.add(Map.entry(path, size));
+        return size;
+    }
+
+    /**
+     * @return the size of the columns of an array of inline tables, whose rows are not reported
+     */
+    private long columns(TOMLColumns c) {
+        int n = c.columnCount(), capacity = c.capacityForFootprint();
+        long size = add(Kind.ARRAYS, COLUMNS + ROWS + 3 * array(n));
+        size += add(Kind.MAP_OVERHEAD, HASH_MAP + hashTable(n) + (long) MAP_NODE * n + 16L * n);   // boxed indexes
+        for (int i = 0; i < n; i++) {
+            size += add(Kind.KEYS, string(c.key(i)));
+            Object d = c.columnData(i);
+            if (d instanceof long[] || d instanceof double[])
+                size += add(Kind.PRIMITIVES, align(16L + 8L * capacity) + BIT_SET + align(16L + 8L * (c.size() + 63 >> 6)));
+            else if (d instanceof boolean[])
+                size += add(Kind.PRIMITIVES, align(16L + capacity));
+            else {
+                size += add(Kind.ARRAYS, array(capacity));
+                for (int row = 0; row < c.size(); row++) {
+                    CharSequence cs = c.getString(row, i);
+                    if (cs instanceof String s)
+                        size += add(Kind.STRINGS, string(s));
+                    else {
+                        size += add(Kind.STRINGS, OFF_HEAP_CHARS);
+                        offHeap += 2L * cs.length();
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
+    private long add(Kind k, long size) {
+        bytes[k.ordinal()] += size;
+        return size;
+    }
+
+    /**
+     * @return the size of a String and of its bytes, Latin-1 when it can be
+     */
+    private static long string(String s) {
+        boolean latin1 = true;
+        for (int i = 0, len = s.length(); i < len && latin1; i++)
+            latin1 = s.charAt(i) < 256;
+        return STRING + align(16L + (latin1 ? s.length() : 2L * s.length()));
+    }
+
+    /**
+     * @return the size of the bucket array of a HashMap holding <code>n</code> entries, grown from the default
+     * capacity
+     */
+    private static long hashTable(int n) {
+        if (n == 0)
+            return 0;
+        int capacity = 16;
+        while (n > capacity * 3 / 4)
+            capacity <<= 1;
+        return array(capacity);
+    }
+
+    /**
+     * @return the capacity of an ArrayList grown from empty to <code>n</code> elements
+     */
+    private static int listCapacity(int n) {
+        if (n == 0)
+            return 0;
+        int capacity = 10;
+        while (capacity < n)
+            capacity += capacity >> 1;
+        return capacity;
+    }
+
+    /**
+     * @return the size of an array of <code>n</code> references
+     */
+    private static long array(int n) {
+        return n == 0 ? 0 : align(16L + 4L * n);
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+}
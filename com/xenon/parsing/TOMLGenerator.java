@@ -0,0 +1,184 @@
+package com.xenon.parsing;
+
+import java.util.SplittableRandom;
+
+/**
+ * Generator of synthetic TOML documents, for benchmarks and load tests.
+ * The same parameters and seed always give the same document.
+ * @param size the approximate length of a document, in characters
+ * @param depth the maximum nesting of table headers, e.g. 3 for <code>[t0.s1.s2]</code>
+ * @param keys the number of keys of each table
+ * @param arrayLength the maximum length of arrays
+ * @param stringLength the maximum length of strings, escape sequences excluded
+ * @param escapeDensity the probability for a character of a basic string to be an escape sequence
+ * @param floatRatio the probability for a number to be a float rather than an integer
+ * @param underscores whether numbers use <code>_</code> separators
+ * @see Main
+ */
+public record TOMLGenerator(int size, int depth, int keys, int arrayLength, int stringLength,
+                            double escapeDensity, double floatRatio, boolean underscores) {
+
+    /**
+     * Documents of 64K characters, looking like a hand-written configuration file.
+     */
+    public static final TOMLGenerator DEFAULT = new TOMLGenerator(64 << 10, 3, 8, 8, 24, 0.02, 0.2, false);
+
+    private static final String[] ESCAPES = {"\\n", "\\t", "\\\"", "\\\\", "\\u00e9", "\\u2603"};
+
+    public TOMLGenerator {
+        if (size < 0 || depth < 1 || keys < 1 || arrayLength < 0 || stringLength < 0
+                || escapeDensity < 0 || escapeDensity > 1 || floatRatio < 0 || floatRatio > 1)
+            throw new IllegalArgumentException("Invalid generator: " + this);
+    }
+
+    public TOMLGenerator withSize(int size) {
+        return new TOMLGenerator(size, depth, keys, arrayLength, stringLength, escapeDensity, floatRatio, underscores);
+    }
+
+    public TOMLGenerator withDepth(int depth) {
+        return new TOMLGenerator(size, depth, keys, arrayLength, stringLength, escapeDensity, floatRatio, underscores);
+    }
+
+    public TOMLGenerator withKeys(int keys) {
+        return new TOMLGenerator(size, depth, keys, arrayLength, stringLength, escapeDensity, floatRatio, underscores);
+    }
+
+    public TOMLGenerator withArrayLength(int arrayLength) {
+        return new TOMLGenerator(size, depth, keys, arrayLength, stringLength, escapeDensity, floatRatio, underscores);
+    }
+
+    public TOMLGenerator withStringLength(int stringLength) {
+        return new TOMLGenerator(size, depth, keys, arrayLength, stringLength, escapeDensity, floatRatio, underscores);
+    }
+
+    public TOMLGenerator withEscapeDensity(double escapeDensity) {
+        return new TOMLGenerator(size, depth, keys, arrayLength, stringLength, escapeDensity, floatRatio, underscores);
+    }
+
+    public TOMLGenerator withFloatRatio(double floatRatio) {
+        return new TOMLGenerator(size, depth, keys, arrayLength, stringLength, escapeDensity, floatRatio, underscores);
+    }
+
+    public TOMLGenerator withUnderscores(boolean underscores) {
+        return new TOMLGenerator(size, depth, keys, arrayLength, stringLength, escapeDensity, floatRatio, underscores);
+    }
+
+    /**
+     * @param seed the seed of the document
+     * @return a new document
+     */
+    public String generate(long seed) {
+        var sb = new StringBuilder(size + 256);
+        generate(seed, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Appends a new document to <code>sb</code>: top-level keys, then tables and their subtables until the
+     * document is {@link #size} characters long.
+     * @param seed the seed of the document
+     * @param sb where to write the document
+     */
+    public void generate(long seed, StringBuilder sb) {
+        var r = new SplittableRandom(seed);
+        int start = sb.length();
+        keys(r, sb);
+        int[] path = new int[depth];
+        int level = 0;
+        while (sb.length() - start < size) {
+            // go down a level, stay, or go up, never deeper than depth
+            if (level < depth && (level == 0 || r.nextInt(3) == 0))
+                path[level++] = 0;
+            else {
+                while (level > 1 && r.nextInt(2) == 0)
+                    level--;
+                path[level - 1]++;
+            }
+            sb.append('[');
+            for (int i = 0; i < level; i++) {
+                if (i != 0)
+                    sb.append('.');
+                sb.append(i == 0 ? 't' : 's').append(path[i]);
+            }
+            sb.append("]\n");
+            keys(r, sb);
+        }
+    }
+
+    private void keys(SplittableRandom r, StringBuilder sb) {
+        for (int k = 0; k < keys; k++) {
+            sb.append('k').append(k).append(" = ");
+            value(r, sb, true);
+            sb.append('\n');
+        }
+    }
+
+    private void value(SplittableRandom r, StringBuilder sb, boolean composite) {
+        switch (r.nextInt(composite ? 6 : 4)) {
+            case 0, 1 -> number(r, sb);
+            case 2 -> string(r, sb);
+            case 3 -> sb.append(r.nextBoolean());
+            case 4 -> {
+                // homogeneous arrays, like most real ones
+                int len = r.nextInt(arrayLength + 1), kind = r.nextInt(2);
+                sb.append('[');
+                for (int i = 0; i < len; i++) {
+                    if (i != 0)
+                        sb.append(", ");
+                    if (kind == 0)
+                        number(r, sb);
+                    else string(r, sb);
+                }
+                sb.append(']');
+            }
+            default -> {
+                int len = 1 + r.nextInt(3);
+                sb.append('{');
+                for (int i = 0; i < len; i++) {
+                    sb.append(i == 0 ? "" : ", ").append('i').append(i).append(" = ");
+                    value(r, sb, false);
+                }
+                sb.append('}');
+            }
+        }
+    }
+
+    private void number(SplittableRandom r, StringBuilder sb) {
+        if (r.nextDouble() < floatRatio) {
+            // short floats are parsed as floats, long ones as doubles
+            sb.append(r.nextInt(-999, 1000)).append('.').append(r.nextBoolean() ? r.nextInt(100) :
+                    r.nextInt(1_000_000_000));
+            return;
+        }
+        // ints, and longs past 10 characters
+        long n = r.nextInt(4) == 0 ? r.nextLong(10_000_000_000L, Long.MAX_VALUE) :
+                r.nextInt(-99_999_999, 1_000_000_000);
+        String s = Long.toString(n);
+        if (!underscores) {
+            sb.append(s);
+            return;
+        }
+        int first = s.charAt(0) == '-' ? 1 : 0;
+        for (int i = 0; i < s.length(); i++) {
+            if (i > first && (s.length() - i) % 3 == 0)
+                sb.append('_');
+            sb.append(s.charAt(i));
+        }
+    }
+
+    private void string(SplittableRandom r, StringBuilder sb) {
+        int len = r.nextInt(stringLength + 1);
+        boolean literal = r.nextInt(4) == 0;
+        char q = literal ? '\'' : '"';
+        sb.append(q);
+        for (int i = 0; i < len; i++) {
+            if (!literal && r.nextDouble() < escapeDensity)
+                sb.append(ESCAPES[r.nextInt(ESCAPES.length)]);
+            else {
+                int c = r.nextInt(38);
+                sb.append(c < 26 ? (char) ('a' + c) : c < 36 ? (char) ('0' + c - 26) : c == 36 ? ' ' : '-');
+            }
+        }
+        sb.append(q);
+    }
+}
@@ -0,0 +1,131 @@
+package com.xenon.parsing;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonicalization of parsed trees, so that structurally equal tables, arrays and primitives are shared between
+ * the documents interned by the same interner.
+ * <pre><code>
+ *     TOMLInterner interner = new TOMLInterner();
+ *     for (Path p : tenantConfigs)
+ *         configs.put(p, interner.intern(TOMLWorker.parse(p)));
+ * </code></pre>
+ * Objects are looked up by {@link TOMLObject#structuralHash()} and checked for equality, bottom-up: a subtree
+ * already known is replaced by its canonical instance without being walked, and the children of a new one are
+ * interned in place before it becomes canonical itself. Canonical objects are only weakly referenced, so that
+ * they are dropped with the last document using them. An interner is thread-safe.
+ * <p>
+ * Parsed trees can't be modified through the public API, which is what makes sharing them safe. Trees built
+ * from {@link OverlayTable} or {@link PersistentTable} aren't interned, and neither are trees
+ * {@link TOMLAccessTracker#track(TOMLTable) tracked} for their reads, whose tables hold per-document counters.
+ * @see TOMLParser#intern(TOMLInterner)
+ */
+public final class TOMLInterner {
+
+    private final Map<Long, Ref> canonical = new ConcurrentHashMap<>();
+    private final ReferenceQueue<TOMLObject> queue = new ReferenceQueue<>();
+
+    private static final class Ref extends WeakReference<TOMLObject> {
+        final long key;
+
+        Ref(TOMLObject o, long key, ReferenceQueue<TOMLObject> q) {
+            super(o, q);
+            this.key = key;
+        }
+    }
+
+    /**
+     * Replaces the subtrees of <code>o</code> by the equal ones already interned, and makes the others
+     * canonical.
+     * @param o the tree, which may be modified
+     * @return the canonical instance of <code>o</code>, <code>o</code> itself if it is new
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends TOMLObject> T intern(T o) {
+        expunge();
+        return (T) canonical(o);
+    }
+
+    /**
+     * @return the number of canonical objects, some of which may have been dropped already
+     */
+    public int size() {
+        expunge();
+        return canonical.size();
+    }
+
+    private TOMLObject canonical(TOMLObject o) {
+        if (!(o instanceof TOMLTable || o instanceof TOMLArray || o instanceof TOMLPrimitive)
+                || o instanceof TOMLTable t && t.tracked != null)    // and so is everything under it
+            return o;
+        long key = o.structuralHash();
+        TOMLObject c = lookup(key);
+        if (c != null && same(c, o))
+            return c;
+        if (o instanceof TOMLTable t) {
+            for (Map.Entry<String, TOMLObject> e : t.children().entrySet())
+                e.setValue(canonical(e.getValue()));    // equal, so the hashes stay valid
+        } else if (o instanceof TOMLArray a && !a.isOffHeap() && a.columns() == null) {
+            for (int i = 0, size = a.size(); i < size; i++)
+                a.replace(i, canonical(a.get(i)));
+        }
+        for (;;) {
+            var ref = new Ref(o, key, queue);
+            Ref previous = canonical.putIfAbsent(key, ref);
+            if (previous == null)
+                return o;
+            c = previous.get();
+            if (c != null)      // interned by another thread meanwhile, or a different object of the same hash
+                return same(c, o) ? c : o;
+            canonical.remove(key, previous);
+        }
+    }
+
+    /**
+     * Equality that also tells arrays of tables from arrays of inline tables, and int from long or float from
+     * double, since TOMLObject#equals doesn't for the former.
+     */
+    private static boolean same(TOMLObject a, TOMLObject b) {
+        if (a == b)
+            return true;
+        if (a.getClass() != b.getClass() || a.structuralHash() != b.structuralHash())
+            return false;
+        if (a instanceof TOMLTable t) {
+            Map<String, TOMLObject> ca = t.children(), cb = b.getAsTable().children();
+            if (ca.size() != cb.size())
+                return false;
+            for (Map.Entry<String, TOMLObject> e : ca.entrySet()) {
+                TOMLObject v = cb.get(e.getKey());
+                if (v == null || !same(e.getValue(), v))
+                    return false;
+            }
+            return true;
+        }
+        if (a instanceof TOMLArray x) {
+            TOMLArray y = b.getAsArray();
+            int size = x.size();
+            if (x.ofTables != y.ofTables || size != y.size())
+                return false;
+            for (int i = 0; i < size; i++)
+                if (!same(x.get(i), y.get(i)))
+                    return false;
+            return true;
+        }
+        return a.equals(b);
+    }
+
+    private TOMLObject lookup(long key) {
+        Ref r = canonical.get(key);
+        return r == null ? null : r.get();
+    }
+
+    private void expunge() {
+        for (Object r; (r = queue.poll()) != null; ) {
+            Ref ref = (Ref) r;
+            canonical.remove(ref.key, ref);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.xenon.parsing;
+
+/**
+ * Receives parts of a TOML document as soon as the parser completes them.
+ * Values are top-level assignments of the current table: an inline table or an array is only given once closed,
+ * with all its content.
+ * @see TOMLPushParser
+ */
+public interface TOMLListener {
+
+    /**
+     * Called when a <code>[table]</code> or <code>[[array.of.tables]]</code> header is declared.
+     * The values that follow belong to it, until the next header.
+     * @param key the (dotted) key of the table
+     * @param arrayOfTables whether the header declares a new table of an array of tables
+     */
+    default void table(String key, boolean arrayOfTables) {}
+
+    /**
+     * Called when a value is complete.
+     * @param table the key of the table the value belongs to, as declared by its header, "" for the root table
+     * @param key the (dotted) key of the value, relative to <code>table</code>
+     * @param value the value
+     */
+    void value(String table, String key, TOMLObject value);
+}
@@ -7,6 +7,8 @@ package com.xenon.parsing;
  */
 public class TOMLObject {
 
+    private long structuralHash;    // 0 until computed
+
     public TOMLPrimitive getAsPrimitive(){
         return (TOMLPrimitive) this;
     }
@@ -23,4 +25,86 @@ public class TOMLObject {
         return this instanceof TOMLTable;
     }
 
+    public TOMLArray getAsArray() {
+        return (TOMLArray) this;
+    }
+
+    public boolean isArray() {
+        return this instanceof TOMLArray;
+    }
+
+    /**
+     * 64-bit hash of the content of this object, independent of the order of table keys.
+     * Two objects with the same content have the same hash; two objects with different contents have a
+     * negligible chance of sharing it.
+     * The hash of a table or an array is computed bottom-up from the cached hashes of its children the first time
+     * it is asked for, and is cached as well.
+     * <p>
+     * While a document is parsed, a change only invalidates the table it's made in and the tables the parser walks
+     * through to get there, not every ancestor: the keys under a <code>[header]</code> go straight to the header's
+     * table. So the hash of a tree is only valid once the parser returned it.
+     * @return the structural hash, never 0
+     * @see TOMLDiff
+     */
+    public final long structuralHash() {
+        long h = structuralHash;
+        if (h == 0) {
+            h = computeStructuralHash();
+            if (h == 0)
+                h = 1;
+            structuralHash = h;
+        }
+        return h;
+    }
+
+    /**
+     * Estimates the heap retained by this object and everything under it, e.g. to weigh trees in a cache bounded
+     * in size. Walks the tree at each call.
+     * @return the estimated size, in bytes
+     * @see TOMLFootprint
+     */
+    public long estimateRetainedBytes() {
+        return TOMLFootprint.retained(this);
+    }
+
+    long computeStructuralHash() {
+        return mix(System.identityHashCode(this));
+    }
+
+    /**
+     * Forgets the cached {@link #structuralHash()}. Must be called whenever the content changes.
+     * The objects holding this one keep their hash, see {@link #structuralHash()}.
+     */
+    void invalidate() {
+        structuralHash = 0;
+    }
+
+    /**
+     * Finalization step of MurmurHash3, spreads the bits of <code>h</code>.
+     */
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of a string.
+     */
+    static long hash(CharSequence s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0, len = s.length(); i < len; i++)
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        return h;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = structuralHash();
+        return (int) (h ^ h >>> 32);
+    }
+
 }
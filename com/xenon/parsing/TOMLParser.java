@@ -0,0 +1,639 @@
+package com.xenon.parsing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+
+/**
+ * Reusable TOML parser.
+ * A TOMLParser keeps its byte and char buffers, its scratch builders and its parsing stack from one document to the
+ * next, so that parsing many small documents costs little more than building their trees.
+ * <pre><code>
+ *     try (TOMLParser parser = TOMLParser.local().reset(path)) {
+ *         TOMLTable root = parser.parse();
+ *     }
+ * </code></pre>
+ * {@link #close()} only closes the current source: the parser stays usable and can be {@link #reset(Path) reset}
+ * again. A TOMLParser is not thread-safe; use {@link #local()} to get one per thread.
+ */
+public class TOMLParser implements AutoCloseable {
+
+    private static final int SLICE = 256;  // tokens parsed between two checks of the time and cancellation
+    private static final int RING = 4096;   // tokens lexed ahead in pipelined mode
+    private static final long PIPELINE_MIN = 1 << 20;  // smaller documents aren't worth a thread
+    private static final ThreadLocal<TOMLParser> LOCAL = ThreadLocal.withInitial(TOMLParser::new),
+            PLAIN = ThreadLocal.withInitial(TOMLParser::new);
+
+    private final TOMLWorker.Lexer lexer = TOMLWorker.Lexer.push(ParseLimits.DEFAULT);
+    private final TOMLWorker.Engine engine = new TOMLWorker.Engine();
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(1 << 14);
+    private ParseLimits limits;
+    private OffHeapStorage storage;
+    private TOMLSchema schema;
+    private TOMLInterner interner;
+    private TOMLAccessTracker tracker;
+    private boolean indexPaths;
+    private List<TOMLSchema.Violation> violations;
+    private boolean pipelined;
+    private boolean columnar;
+
+    private ReadableByteChannel channel;
+    private AutoCloseable source;   // what close() releases, if any
+    private boolean inUse;
+
+    // state of the parse, which may run in several steps
+    private boolean started, chunkPending, inputEnded, countBytes;
+    private long bytesRead, total;
+    private long deadline;
+    private volatile boolean cancelled;
+    private TOMLTable result;
+    private TOMLPathIndex pathIndex;
+
+    public TOMLParser() {
+        this(ParseLimits.DEFAULT);
+    }
+
+    public TOMLParser(ParseLimits limits) {
+        this.limits = limits;
+    }
+
+    /**
+     * Returns the parser of the current thread, or a new parser if it is already in use, for instance when a
+     * document is parsed from a {@link TOMLListener} or a record consumer.
+     * The returned parser keeps the limits, the storage, the schema, the interner, the tracker, the path indexing
+     * and the pipelined mode it was last given.
+     * @return a parser that is not in use
+     */
+    public static TOMLParser local() {
+        TOMLParser p = LOCAL.get();
+        return p.inUse ? new TOMLParser() : p;
+    }
+
+    /**
+     * Same as {@link #local()}, for a parser of its own that is never given anything but limits, so that the
+     * static <code>TOMLWorker.parse</code> methods don't inherit the options set on {@link #local()}.
+     * @param limits the limits of the document
+     * @return a parser that is not in use, with the default options
+     */
+    static TOMLParser plain(ParseLimits limits) {
+        TOMLParser p = PLAIN.get();
+        return (p.inUse ? new TOMLParser() : p).limits(limits);
+    }
+
+    /**
+     * @param limits the limits documents parsed from now on must respect
+     * @return this parser
+     */
+    public TOMLParser limits(ParseLimits limits) {
+        this.limits = limits;
+        return this;
+    }
+
+    /**
+     * @param storage where the large arrays and strings of the documents parsed from now on are kept, or null to
+     *                keep them on the heap
+     * @return this parser
+     */
+    public TOMLParser offHeap(OffHeapStorage storage) {
+        this.storage = storage;
+        return this;
+    }
+
+    /**
+     * Stores the arrays of same-shaped inline tables of the documents parsed from now on by columns, which takes
+     * much less memory and is read without creating objects through {@link TOMLArray#columns()}.
+     * The elements of such an array are tables built again at each {@link TOMLArray#get(int)}, so this is only
+     * worth it when they're read by columns. Such arrays are neither {@link #intern(TOMLInterner) interned} nor
+     * {@link #track(TOMLAccessTracker) tracked}.
+     * @param columnar whether to store arrays of inline tables by columns
+     * @return this parser
+     * @see TOMLColumns
+     */
+    public TOMLParser columnar(boolean columnar) {
+        this.columnar = columnar;
+        return this;
+    }
+
+    /**
+     * Can't be combined with {@link #track(TOMLAccessTracker)}.
+     * @param interner the interner the documents parsed from now on are canonicalized by, or null not to
+     *                 share their subtrees with other documents
+     * @return this parser
+     */
+    public TOMLParser intern(TOMLInterner interner) {
+        this.interner = interner;
+        return this;
+    }
+
+    /**
+     * Can't be combined with {@link #intern(TOMLInterner)}, since the tables of a tracked tree hold the counters
+     * of their own path and can't be shared.
+     * @param tracker the tracker the reads of the documents parsed from now on are counted by, or null not to
+     *                count them
+     * @return this parser
+     */
+    public TOMLParser track(TOMLAccessTracker tracker) {
+        this.tracker = tracker;
+        return this;
+    }
+
+    /**
+     * Indexes the paths of the documents parsed from now on, once they're parsed.
+     * @param indexPaths whether to build a {@link TOMLPathIndex}, available from {@link #pathIndex()}
+     * @return this parser
+     */
+    public TOMLParser indexPaths(boolean indexPaths) {
+        this.indexPaths = indexPaths;
+        return this;
+    }
+
+    /**
+     * Lexes the documents parsed from now on in another thread, which hands the tokens to this one through a
+     * bounded ring while it builds the tree, so that the two overlap on large documents. Documents known to be
+     * smaller than 1MB, and those parsed with {@link #step(long)}, are still parsed by this thread alone.
+     * @param pipelined whether to lex in another thread
+     * @return this parser
+     */
+    public TOMLParser pipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+        return this;
+    }
+
+    /**
+     * Checks the documents parsed from now on against a schema, failing with a {@link ParsingException} at the
+     * first violation.
+     * @param schema the schema, or null not to validate
+     * @return this parser
+     */
+    public TOMLParser validate(TOMLSchema schema) {
+        return validate(schema, null);
+    }
+
+    /**
+     * Checks the documents parsed from now on against a schema, adding the violations to a list instead of
+     * failing. The document is parsed whole, as if it were valid.
+     * @param schema the schema, or null not to validate
+     * @param violations the list violations are added to, or null to fail at the first one
+     * @return this parser
+     */
+    public TOMLParser validate(TOMLSchema schema, List<TOMLSchema.Violation> violations) {
+        this.schema = schema;
+        this.violations = violations;
+        return this;
+    }
+
+    /**
+     * Prepares the parser to parse a file. The previous source is closed.
+     * @param tomlFile the file to be parsed
+     * @return this parser
+     * @throws ParsingException if the file can't be opened
+     */
+    public TOMLParser reset(Path tomlFile) throws ParsingException {
+        prepare(null);
+        try {
+            FileChannel ch = FileChannel.open(tomlFile);
+            channel = ch;
+            countBytes = true;
+            total = ch.size();
+        } catch (IOException e) {
+            inUse = false;
+            throw ParsingException.from(e);
+        }
+        source = channel;
+        return this;
+    }
+
+    /**
+     * Prepares the parser to parse UTF-8 bytes from a blocking channel. The previous source is closed.
+     * Use {@link TOMLPushParser} for non-blocking channels.
+     * @param ch the channel, closed with this parser
+     * @return this parser
+     * @throws ParsingException if the previous source can't be closed
+     */
+    public TOMLParser reset(ReadableByteChannel ch) throws ParsingException {
+        prepare(ch);
+        channel = ch;
+        countBytes = true;
+        return this;
+    }
+
+    /**
+     * Prepares the parser to parse UTF-8 bytes from a stream. The previous source is closed.
+     * @param in the stream, closed with this parser
+     * @return this parser
+     * @throws ParsingException if the previous source can't be closed
+     */
+    public TOMLParser reset(InputStream in) throws ParsingException {
+        return reset(Channels.newChannel(in));
+    }
+
+    /**
+     * Prepares the parser to parse a gzip, zlib or raw deflate compressed document, the format being detected
+     * from its first bytes. The document is inflated by another thread into a small ring of buffers while this
+     * one parses them, so that the two overlap and the decompressed document is never held whole.
+     * The previous source is closed.
+     * @param compressed the compressed stream, closed with this parser
+     * @return this parser
+     * @throws ParsingException if the previous source can't be closed
+     */
+    public TOMLParser resetCompressed(InputStream compressed) throws ParsingException {
+        return reset(new InflatingChannel(compressed));
+    }
+
+    /**
+     * Same as {@link #resetCompressed(InputStream)} for a file.
+     * @param compressedFile the compressed file, e.g. <code>config.toml.gz</code>
+     * @return this parser
+     * @throws ParsingException if the file can't be opened
+     */
+    public TOMLParser resetCompressed(Path compressedFile) throws ParsingException {
+        InputStream in;
+        try {
+            in = Files.newInputStream(compressedFile);
+        } catch (IOException e) {
+            throw ParsingException.from(e);
+        }
+        return resetCompressed(in);
+    }
+
+    /**
+     * Prepares the parser to parse characters from a reader. The previous source is closed.
+     * @param reader the reader, closed with this parser
+     * @return this parser
+     * @throws ParsingException if the previous source can't be closed
+     */
+    public TOMLParser reset(Reader reader) throws ParsingException {
+        prepare(reader);
+        lexer.source(reader);
+        return this;
+    }
+
+    /**
+     * Prepares the parser to parse a whole document held in a string. The previous source is closed.
+     * @param document the document
+     * @return this parser
+     * @throws ParsingException if the previous source can't be closed
+     */
+    public TOMLParser reset(String document) throws ParsingException {
+        prepare(null);
+        lexer.text(document);
+        total = document.length();
+        return this;
+    }
+
+    /**
+     * Parses the source given to the last <code>reset</code>, and closes it.
+     * @return the root table of the document
+     * @throws ParsingException if the document is malformed, unreadable or breaks one of the limits
+     */
+    public TOMLTable parse() throws ParsingException {
+        return parse(null, null);
+    }
+
+    /**
+     * Parses the source given to the last <code>reset</code>, streaming the tables of the array of tables
+     * <code>[[recordKey]]</code> to <code>records</code> instead of keeping them, and closes the source.
+     * @param recordKey the exact (dotted) key of the array of tables to stream
+     * @param records the consumer of the tables
+     * @return the rest of the document, where <code>recordKey</code> is left as an empty array
+     * @throws ParsingException if the document is malformed, unreadable or breaks one of the limits
+     * @see TOMLWorker#parse(Path, ParseLimits, String, Consumer)
+     */
+    public TOMLTable parse(String recordKey, Consumer<? super TOMLTable> records) throws ParsingException {
+        start();
+        if (records != null)
+            engine.stream(recordKey, records);
+        advanceWhole();
+        return result;
+    }
+
+    /**
+     * Transcodes the source given to the last <code>reset</code> to JSON, and closes the source.
+     * The document is written as it is parsed, without building its tree: only the tables leading to the current
+     * table header are kept open, and {@link ParseLimits#maxKeys()} applies to each header rather than to the
+     * whole document. As a consequence, all the headers of a table must be declared next to each other, and of the
+     * tables a section defines with dotted keys, only one can be extended by the following headers.
+     * A name is written once per object, so a key defined twice, a header for a key holding a value, as in
+     * <code>a = 1 [a]</code> or <code>r = [1] [[r]]</code>, and a second header for a table, as in
+     * <code>[a] x = 1 [a] y = 2</code>, are rejected.
+     * Date and times are written as strings, and infinite or NaN floats as null.
+     * @param out the writer JSON is written to, flushed but not closed
+     * @throws ParsingException if the document is malformed, unreadable, breaks one of the limits, declares a table
+     * apart from the rest of its parent or twice, or if writing fails
+     */
+    public void toJson(Writer out) throws ParsingException {
+        start();
+        JSONWriter json;
+        try {
+            json = new JSONWriter(out);
+        } catch (ParsingException e) {
+            close();
+            throw e;
+        }
+        engine.sections(json);
+        advanceWhole();
+        json.end();
+    }
+
+    /**
+     * Parses the source given to the last <code>reset</code> for about <code>budgetNanos</code> nanoseconds at
+     * most, and returns. Parsing resumes where it stopped at the next call, until the document is parsed:
+     * <pre><code>
+     *     parser.reset(path);
+     *     while (!parser.step(1_000_000).done())
+     *         yieldToOtherTasks();
+     *     TOMLTable root = parser.result();
+     * </code></pre>
+     * The source is closed once the document is parsed, or as soon as an exception is thrown.
+     * @param budgetNanos the time to spend parsing
+     * @return the progress made so far
+     * @throws ParsingException if the document is malformed, unreadable, breaks one of the limits, or if the
+     * {@link #deadline(long) deadline} has passed
+     * @throws java.util.concurrent.CancellationException if the parse was {@link #cancel() cancelled}
+     */
+    public Progress step(long budgetNanos) throws ParsingException {
+        if (!started)
+            start();
+        advance(Long.MAX_VALUE, System.nanoTime() + budgetNanos);
+        return progress();
+    }
+
+    /**
+     * Same as {@link #step(long)}, with a budget in tokens rather than in time.
+     * @param maxTokens the maximum number of tokens to parse
+     * @return the progress made so far
+     * @throws ParsingException if the document is malformed, unreadable, breaks one of the limits, or if the
+     * {@link #deadline(long) deadline} has passed
+     * @throws java.util.concurrent.CancellationException if the parse was {@link #cancel() cancelled}
+     */
+    public Progress stepTokens(long maxTokens) throws ParsingException {
+        if (!started)
+            start();
+        advance(maxTokens, Long.MAX_VALUE);
+        return progress();
+    }
+
+    /**
+     * @return the root table of the document parsed by the last steps
+     * @throws IllegalStateException if the document isn't fully parsed yet
+     */
+    public TOMLTable result() {
+        if (result == null)
+            throw new IllegalStateException("Document not parsed yet");
+        return result;
+    }
+
+    /**
+     * @return the index of the paths of the document parsed last
+     * @throws IllegalStateException if the document isn't fully parsed yet, or if paths aren't
+     * {@link #indexPaths(boolean) indexed}
+     */
+    public TOMLPathIndex pathIndex() {
+        if (pathIndex == null)
+            throw new IllegalStateException(result == null ? "Document not parsed yet" : "Paths not indexed");
+        return pathIndex;
+    }
+
+    /**
+     * Sets a deadline to the parse of the source given to the last <code>reset</code>, all steps included.
+     * @param nanoTime the deadline, as a {@link System#nanoTime()} value
+     * @return this parser
+     */
+    public TOMLParser deadline(long nanoTime) {
+        deadline = nanoTime;
+        return this;
+    }
+
+    /**
+     * Cancels the current parse, which fails with a {@link java.util.concurrent.CancellationException} at its
+     * next check, within a few hundred tokens. Can be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Progress of a parse.
+     * @param consumed the number of bytes read from the source, or of chars for sources of chars
+     * @param total the size of the source if it is known, -1 otherwise
+     * @param done whether the document is fully parsed
+     */
+    public record Progress(long consumed, long total, boolean done) {
+        /**
+         * @return the percentage of the source consumed, or NaN if the size of the source is unknown
+         */
+        public double percent() {
+            return done ? 100 : total <= 0 ? Double.NaN : Math.min(100, 100.0 * consumed / total);
+        }
+    }
+
+    private Progress progress() {
+        return new Progress(countBytes ? bytesRead : lexer.consumed(), total, result != null);
+    }
+
+    private void start() {
+        if (!inUse)
+            throw new IllegalStateException("No source to parse, reset() first");
+        if (started)
+            throw new IllegalStateException("Parse already started, step() through it");
+        if (interner != null && tracker != null)
+            throw new IllegalStateException("Documents can't be both interned and tracked");
+        engine.reset(new TOMLTable(), limits);
+        lexer.offHeap(storage);
+        engine.offHeap(storage);
+        engine.columnar(columnar);
+        engine.validate(schema, violations);
+        started = true;
+    }
+
+    /**
+     * Feeds the engine with at most <code>maxTokens</code> tokens, or until <code>until</code>.
+     * The source is closed if the document ends or if an exception is thrown.
+     */
+    private void advance(long maxTokens, long until) throws ParsingException {
+        if (result != null)
+            return;
+        boolean timed = until != Long.MAX_VALUE;
+        try {
+            for (;;) {
+                if (cancelled)
+                    throw new CancellationException("Parse cancelled");
+                if (deadline != 0 && System.nanoTime() - deadline >= 0)
+                    throw ParsingException.because("Parse deadline exceeded");
+                if (channel != null && !chunkPending && !inputEnded) {
+                    ByteBuffer b = bytes.clear();
+                    int r = channel.read(b);
+                    if (r < 0) {
+                        lexer.endInput();
+                        inputEnded = true;
+                    } else {
+                        bytesRead += r;
+                        lexer.supply(b.flip());
+                        chunkPending = true;
+                    }
+                }
+                int limit = (int) Math.min(maxTokens, SLICE);
+                int n = TOMLWorker.drain(lexer, engine, limit);
+                maxTokens -= n;
+                if (n == limit) {
+                    if (maxTokens == 0 || timed && System.nanoTime() - until >= 0)
+                        return;
+                } else if (chunkPending) {
+                    lexer.release();
+                    chunkPending = false;
+                    if (timed && System.nanoTime() - until >= 0)    // a chunk can end well before a slice does
+                        return;
+                } else if (channel == null || inputEnded) {
+                    complete();
+                    close();
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            close();
+            throw ParsingException.from(e);
+        } catch (ParsingException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void complete() throws ParsingException {
+        result = engine.finish();
+        if (interner != null)
+            result = interner.intern(result);
+        if (tracker != null)
+            tracker.track(result);
+        if (indexPaths)
+            pathIndex = TOMLPathIndex.of(result);
+    }
+
+    private void advanceWhole() throws ParsingException {
+        if (pipelined && (total < 0 || total >= PIPELINE_MIN))
+            advancePipelined();
+        else advance(Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Parses the whole document, lexed by another thread. The source is closed once that thread is done with it.
+     */
+    private void advancePipelined() throws ParsingException {
+        var ring = new TOMLWorker.TokenRing(RING);
+        ReadableByteChannel ch = channel;
+        var lexing = new Thread(() -> lex(ch, ring), "toml-lexer");
+        lexing.setDaemon(true);
+        lexing.start();
+        try {
+            for (;;) {
+                if (cancelled)
+                    throw new CancellationException("Parse cancelled");
+                if (deadline != 0 && System.nanoTime() - deadline >= 0)
+                    throw ParsingException.because("Parse deadline exceeded");
+                if (TOMLWorker.feed(ring, engine, SLICE) < SLICE)
+                    break;
+            }
+            join(lexing);
+            complete();
+        } catch (ParsingException | RuntimeException e) {
+            ring.close();
+            lexing.interrupt();     // and closing the source, unblock a lexing thread waiting for input
+            try {
+                close();
+            } finally {
+                join(lexing);
+            }
+            throw e;
+        }
+        close();
+    }
+
+    /**
+     * Body of the lexing thread: reads the source and puts its tokens in the ring, until the end of the document,
+     * a failure, or the ring is closed.
+     */
+    private void lex(ReadableByteChannel ch, TOMLWorker.TokenRing ring) {
+        try {
+            if (ch == null) {
+                TOMLWorker.lex(lexer, ring);
+            } else for (;;) {
+                ByteBuffer b = bytes.clear();
+                int r = ch.read(b);
+                if (r < 0) {
+                    lexer.endInput();
+                    TOMLWorker.lex(lexer, ring);
+                    break;
+                }
+                bytesRead += r;
+                lexer.supply(b.flip());
+                if (!TOMLWorker.lex(lexer, ring))
+                    return;
+                lexer.release();
+            }
+            ring.end();
+        } catch (IOException e) {
+            ring.fail(ParsingException.from(e));
+        } catch (Throwable t) {
+            ring.fail(t);
+        }
+    }
+
+    /**
+     * Waits for the lexing thread, whose writes to the lexer and to this parser are then visible.
+     */
+    private static void join(Thread lexing) {
+        boolean interrupted = false;
+        for (;;) {
+            try {
+                lexing.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void prepare(AutoCloseable newSource) throws ParsingException {
+        close();
+        lexer.reset(limits);
+        source = newSource;
+        inUse = true;
+        started = chunkPending = inputEnded = cancelled = false;
+        countBytes = false;
+        bytesRead = 0;
+        total = -1;
+        deadline = 0;
+        result = null;
+        pathIndex = null;
+    }
+
+    /**
+     * Closes the current source, if any. The parser can still be reset and reused.
+     * @throws ParsingException if closing the source fails
+     */
+    @Override
+    public void close() throws ParsingException {
+        AutoCloseable s = source;
+        source = null;
+        channel = null;
+        inUse = started = false;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (Exception e) {
+                throw ParsingException.from(e);
+            }
+        }
+    }
+}
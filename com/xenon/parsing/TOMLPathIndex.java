@@ -0,0 +1,197 @@
+package com.xenon.parsing;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Flat index of a tree, from the full path of each value to the value, for properties-style lookups.
+ * <pre><code>
+ *     TOMLPathIndex index = TOMLPathIndex.of(root);
+ *     TOMLObject h = index.get("table2.artif.h");     // one probe, however deep
+ *     TOMLObject host = index.get("servers[1].host");
+ *     Map&lt;String, String&gt; properties = index.flatten();
+ * </code></pre>
+ * Paths are the keys of the tables joined by dots, and the indexes of the elements of arrays in brackets.
+ * Every value has a path, tables and arrays included, except the elements of arrays stored in an
+ * {@link OffHeapStorage}. Keys holding dots are joined as they are, so that their paths may be ambiguous.
+ * <p>
+ * The index is an open-addressing hash table with linear probing, built by a single walk of the tree. It is not
+ * updated if the tree changes afterwards.
+ * @see TOMLParser#indexPaths(boolean)
+ */
+public final class TOMLPathIndex {
+
+    private String[] keys = new String[16];
+    private int[] hashes = new int[16];
+    private TOMLObject[] values = new TOMLObject[16];
+    private int size, primitives;
+
+    private TOMLPathIndex() {}
+
+    /**
+     * @param root the tree
+     * @return the index of the paths of <code>root</code>
+     */
+    public static TOMLPathIndex of(TOMLTable root) {
+        var index = new TOMLPathIndex();
+        index.walk(root, "");
+        return index;
+    }
+
+    private void walk(TOMLObject o, String path) {
+        if (o instanceof TOMLTable t) {
+            for (Map.Entry<String, TOMLObject> e : t.children().entrySet()) {
+                String p = path.isEmpty() ? e.getKey() : path + '.' + e.getKey();
+                put(p, e.getValue());
+                walk(e.getValue(), p);
+            }
+        } else if (o instanceof TOMLArray a && !a.isOffHeap()) {
+            for (int i = 0, n = a.size(); i < n; i++) {
+                String p = path + '[' + i + ']';
+                TOMLObject e = a.get(i);
+                put(p, e);
+                walk(e, p);
+            }
+        }
+    }
+
+    private void put(String path, TOMLObject value) {
+        if (size + 1 > keys.length >> 1)
+            grow();
+        int h = spread(path.hashCode()), mask = keys.length - 1, i = h & mask;
+        for (String k; (k = keys[i]) != null; i = i + 1 & mask)
+            if (hashes[i] == h && k.equals(path)) {   // ambiguous path, the last value wins
+                if (values[i] instanceof TOMLPrimitive)
+                    primitives--;
+                size--;
+                break;
+            }
+        keys[i] = path;
+        hashes[i] = h;
+        values[i] = value;
+        size++;
+        if (value instanceof TOMLPrimitive)
+            primitives++;
+    }
+
+    private void grow() {
+        String[] k = keys;
+        int[] h = hashes;
+        TOMLObject[] v = values;
+        int capacity = k.length << 1, mask = capacity - 1;
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        values = new TOMLObject[capacity];
+        for (int j = 0; j < k.length; j++) {
+            if (k[j] == null)
+                continue;
+            int i = h[j] & mask;
+            while (keys[i] != null)
+                i = i + 1 & mask;
+            keys[i] = k[j];
+            hashes[i] = h[j];
+            values[i] = v[j];
+        }
+    }
+
+    private static int spread(int h) {
+        return h ^ h >>> 16;
+    }
+
+    /**
+     * @param path the full path of a value
+     * @return the value, or null if there is none
+     */
+    public TOMLObject get(String path) {
+        int h = spread(path.hashCode()), mask = keys.length - 1;
+        for (int i = h & mask; ; i = i + 1 & mask) {
+            String k = keys[i];
+            if (k == null)
+                return null;
+            if (hashes[i] == h && k.equals(path))
+                return values[i];
+        }
+    }
+
+    public boolean contains(String path) {
+        return get(path) != null;
+    }
+
+    /**
+     * @return the number of paths
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Read-only view of the primitives of the tree by path, as strings, backed by this index: nothing is copied,
+     * and values are formatted at each access.
+     * @return the flattened tree
+     */
+    public Map<String, String> flatten() {
+        return new Flat();
+    }
+
+    private final class Flat extends AbstractMap<String, String> {
+        private Set<Entry<String, String>> entries;
+
+        @Override
+        public String get(Object key) {
+            return key instanceof String s && TOMLPathIndex.this.get(s) instanceof TOMLPrimitive p
+                    ? p.asString() : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String s && TOMLPathIndex.this.get(s) instanceof TOMLPrimitive;
+        }
+
+        @Override
+        public int size() {
+            return primitives;
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            Set<Entry<String, String>> e = entries;
+            return e != null ? e : (entries = new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new Iterator<>() {
+                        int i = next(0);
+
+                        private int next(int from) {
+                            while (from < keys.length && !(values[from] instanceof TOMLPrimitive))
+                                from++;
+                            return from;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return i < keys.length;
+                        }
+
+                        @Override
+                        public Entry<String, String> next() {
+                            if (i >= keys.length)
+                                throw new NoSuchElementException();
+                            var entry = new SimpleImmutableEntry<>(keys[i], values[i].getAsPrimitive().asString());
+                            i = next(i + 1);
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return primitives;
+                }
+            });
+        }
+    }
+}
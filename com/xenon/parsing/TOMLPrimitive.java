@@ -1,5 +1,10 @@
 package com.xenon.parsing;
 
+import java.io.Reader;
+import java.io.StringReader;
+import java.time.*;
+import java.time.temporal.Temporal;
+
 /**
  * Representation of TOML primitives such as numbers, booleans and strings.
  * @author Zenon
@@ -31,6 +36,45 @@ public abstract class TOMLPrimitive extends TOMLObject {
     public final boolean isBoolean(){
         return this instanceof TOMLBoolean;
     }
+    public final boolean isDateTime(){
+        return this instanceof TOMLDateTime;
+    }
+
+    public final TOMLDateTime getAsDateTime(){
+        return (TOMLDateTime) this;
+    }
+
+    /**
+     * @return the value as text, without copying it if it is a string stored off-heap
+     * @see OffHeapStorage
+     */
+    public CharSequence asCharSequence(){
+        return asString();
+    }
+
+    /**
+     * @return a reader of the value as text, reading it where it is if it is a string stored off-heap
+     * @see OffHeapStorage
+     */
+    public Reader asReader(){
+        return new StringReader(asString());
+    }
+
+    /**
+     * Factories for values built outside of a parse, e.g. overrides given to {@link PersistentTable#with}.
+     */
+    public static TOMLPrimitive of(String s){
+        return new TOMLString(s);
+    }
+    public static TOMLPrimitive of(long l){
+        return l == (int) l ? new TOMLInt((int) l) : new TOMLLong(l);
+    }
+    public static TOMLPrimitive of(double d){
+        return new TOMLDouble(d);
+    }
+    public static TOMLPrimitive of(boolean b){
+        return new TOMLBoolean(b);
+    }
 
     @Override
     public final String toString() {
@@ -38,18 +82,28 @@ public abstract class TOMLPrimitive extends TOMLObject {
     }
 
     static class TOMLString extends TOMLPrimitive{
-        private final String value;
+        private final CharSequence value;   // a String, unless stored off-heap
 
-        TOMLString(String s){
+        TOMLString(CharSequence s){
             value = s;
         }
 
 
         @Override
         public String asString() {
+            return value.toString();
+        }
+
+        @Override
+        public CharSequence asCharSequence() {
             return value;
         }
 
+        @Override
+        public Reader asReader() {
+            return OffHeapStorage.reader(value);
+        }
+
         @Override
         public int asInt() {
             return (int) asFloat();
@@ -67,13 +121,23 @@ public abstract class TOMLPrimitive extends TOMLObject {
 
         @Override
         public float asFloat() {
-            return Float.parseFloat(value);
+            return Float.parseFloat(value.toString());
         }
 
         @Override
         public boolean asBoolean() {
             return value.length() > 0;
         }
+
+        @Override
+        long computeStructuralHash() {
+            return mix(1L * 0x9E3779B97F4A7C15L + (hash(value)));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return this == obj || obj instanceof TOMLString o && CharSequence.compare(value, o.value) == 0;
+        }
     }
 
     static class TOMLInt extends TOMLPrimitive {
@@ -114,6 +178,16 @@ public abstract class TOMLPrimitive extends TOMLObject {
         public boolean asBoolean() {
             return value != 0;
         }
+
+        @Override
+        long computeStructuralHash() {
+            return mix(2L * 0x9E3779B97F4A7C15L + (value));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return this == obj || obj instanceof TOMLInt o && value == o.value;
+        }
     }
 
     static class TOMLLong extends TOMLPrimitive {
@@ -153,6 +227,16 @@ public abstract class TOMLPrimitive extends TOMLObject {
         public boolean asBoolean() {
             return value != 0;
         }
+
+        @Override
+        long computeStructuralHash() {
+            return mix(3L * 0x9E3779B97F4A7C15L + (value));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return this == obj || obj instanceof TOMLLong o && value == o.value;
+        }
     }
 
     static class TOMLDouble extends TOMLPrimitive{
@@ -192,6 +276,16 @@ public abstract class TOMLPrimitive extends TOMLObject {
         public boolean asBoolean() {
             return value != 0;
         }
+
+        @Override
+        long computeStructuralHash() {
+            return mix(4L * 0x9E3779B97F4A7C15L + (Double.doubleToLongBits(value)));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return this == obj || obj instanceof TOMLDouble o && Double.compare(value, o.value) == 0;
+        }
     }
 
     static class TOMLFloat extends TOMLPrimitive{
@@ -231,6 +325,16 @@ public abstract class TOMLPrimitive extends TOMLObject {
         public boolean asBoolean() {
             return value != 0;
         }
+
+        @Override
+        long computeStructuralHash() {
+            return mix(5L * 0x9E3779B97F4A7C15L + (Float.floatToIntBits(value)));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return this == obj || obj instanceof TOMLFloat o && Float.compare(value, o.value) == 0;
+        }
     }
 
     static class TOMLBoolean extends TOMLPrimitive{
@@ -270,5 +374,348 @@ public abstract class TOMLPrimitive extends TOMLObject {
         public boolean asBoolean() {
             return value;
         }
+
+        @Override
+        long computeStructuralHash() {
+            return mix(6L * 0x9E3779B97F4A7C15L + (value ? 1 : 0));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return this == obj || obj instanceof TOMLBoolean o && value == o.value;
+        }
+    }
+
+    /**
+     * Offset date-time, local date-time, local date or local time.
+     * The value is packed in a single <code>long</code> of microseconds, plus the offset in minutes for offset
+     * date-times, so that holding a large number of them costs no more than holding as many longs.
+     * Fractional seconds are truncated to the microsecond, which TOML allows as long as milliseconds are kept.
+     * <code>java.time</code> objects are only created on demand by the <code>to*()</code> methods.
+     */
+    public static final class TOMLDateTime extends TOMLPrimitive {
+
+        public enum Kind {
+            OFFSET_DATE_TIME, LOCAL_DATE_TIME, LOCAL_DATE, LOCAL_TIME
+        }
+
+        private static final long MICROS_PER_DAY = 86_400_000_000L;
+        private static final Kind[] KINDS = Kind.values();
+
+        /**
+         * Microseconds since 1970-01-01T00:00 for all kinds but {@link Kind#LOCAL_TIME}, for which it is the
+         * microsecond of the day. The epoch is in UTC for {@link Kind#OFFSET_DATE_TIME},
+         * and in no particular time-zone for local kinds.
+         */
+        private final long micros;
+        private final short offsetMinutes;
+        private final byte kind;
+
+        private TOMLDateTime(long micros, int offsetMinutes, Kind kind) {
+            this.micros = micros;
+            this.offsetMinutes = (short) offsetMinutes;
+            this.kind = (byte) kind.ordinal();
+        }
+
+        /**
+         * Cheap check done by the lexer on unquoted values before attempting {@link #parse(char[], int, int)}.
+         * @return whether the range starts like a date (<code>dddd-</code>) or a time (<code>dd:</code>)
+         */
+        static boolean looksLike(char[] c, int start, int afterEnd) {
+            int len = afterEnd - start;
+            if (len >= 8 && digit(c[start]) && digit(c[start + 1])) {
+                if (c[start + 2] == ':')
+                    return true;
+                return len >= 10 && digit(c[start + 2]) && digit(c[start + 3]) && c[start + 4] == '-';
+            }
+            return false;
+        }
+
+        /**
+         * Parses an RFC 3339 date, time or date-time as written in TOML, straight from the lexer's characters.
+         * The separator between date and time can be 'T', 't' or a space.
+         * @param c the chars
+         * @param start the start index (inclusive)
+         * @param afterEnd the end index (exclusive)
+         * @return the parsed value, or null if the range is not a valid date or time
+         */
+        static TOMLDateTime parse(char[] c, int start, int afterEnd) {
+            int len = afterEnd - start;
+            if (len >= 3 && c[start + 2] == ':') {
+                long t = timeEnd(c, start, afterEnd) == afterEnd ? parseTime(c, start, afterEnd) : -1;
+                return t < 0 ? null : new TOMLDateTime(t, 0, Kind.LOCAL_TIME);
+            }
+            if (len < 10 || c[start + 4] != '-' || c[start + 7] != '-')
+                return null;
+            int year = digits(c, start, 4), month = digits(c, start + 5, 2), day = digits(c, start + 8, 2);
+            if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month))
+                return null;
+            long days = epochDay(year, month, day);
+            if (len == 10)
+                return new TOMLDateTime(days * MICROS_PER_DAY, 0, Kind.LOCAL_DATE);
+            char sep = c[start + 10];
+            if (sep != 'T' && sep != 't' && sep != ' ')
+                return null;
+            int i = timeEnd(c, start + 11, afterEnd);
+            long t = parseTime(c, start + 11, i);
+            if (t < 0)
+                return null;
+            long local = days * MICROS_PER_DAY + t;
+            if (i == afterEnd)
+                return new TOMLDateTime(local, 0, Kind.LOCAL_DATE_TIME);
+            int offset;
+            if ((c[i] == 'Z' || c[i] == 'z') && i + 1 == afterEnd)
+                offset = 0;
+            else if ((c[i] == '+' || c[i] == '-') && afterEnd - i == 6 && c[i + 3] == ':') {
+                int h = digits(c, i + 1, 2), m = digits(c, i + 4, 2);
+                if (h < 0 || h > 23 || m < 0 || m > 59)
+                    return null;
+                offset = h * 60 + m;
+                if (c[i] == '-')
+                    offset = -offset;
+            } else return null;
+            return new TOMLDateTime(local - offset * 60_000_000L, offset, Kind.OFFSET_DATE_TIME);
+        }
+
+        /**
+         * @return the index right after <code>HH:MM:SS[.fraction]</code> starting at <code>start</code>
+         */
+        @SuppressWarnings("StatementWithEmptyBody")
+        private static int timeEnd(char[] c, int start, int afterEnd) {
+            int i = Math.min(start + 8, afterEnd);
+            if (i < afterEnd && c[i] == '.')
+                for (i++; i < afterEnd && digit(c[i]); i++);
+            return i;
+        }
+
+        /**
+         * Parses <code>HH:MM:SS[.fraction]</code>, the range ending with the time.
+         * @return the microsecond of the day, -1 if malformed
+         */
+        private static long parseTime(char[] c, int start, int afterEnd) {
+            if (afterEnd - start < 8 || c[start + 2] != ':' || c[start + 5] != ':')
+                return -1;
+            int h = digits(c, start, 2), m = digits(c, start + 3, 2), s = digits(c, start + 6, 2);
+            if (h < 0 || h > 23 || m < 0 || m > 59 || s < 0 || s > 59)
+                return -1;
+            long micros = ((h * 60L + m) * 60 + s) * 1_000_000;
+            int st = start + 9, fraction = 0;
+            if (afterEnd > start + 8) {
+                if (afterEnd == st)    // '.' without digits
+                    return -1;
+                for (int i = st, end = Math.min(afterEnd, st + 6); i < end; i++)
+                    fraction = fraction * 10 + c[i] - '0';
+                for (int n = afterEnd - st; n < 6; n++)
+                    fraction *= 10;
+            }
+            return micros + fraction;
+        }
+
+        private static boolean digit(char c) {
+            return '0' <= c && c <= '9';
+        }
+
+        /**
+         * @return the value of <code>n</code> decimal digits, -1 if one of them isn't a digit
+         */
+        private static int digits(char[] c, int start, int n) {
+            int v = 0;
+            for (int i = start, end = start + n; i < end; i++) {
+                char ch = c[i];
+                if (!digit(ch))
+                    return -1;
+                v = v * 10 + ch - '0';
+            }
+            return v;
+        }
+
+        private static int daysInMonth(int year, int month) {
+            if (month == 2)
+                return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0) ? 29 : 28;
+            return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+        }
+
+        /**
+         * Days since 1970-01-01 of a proleptic Gregorian date.
+         */
+        private static long epochDay(int year, int month, int day) {
+            int y = month <= 2 ? year - 1 : year;
+            int era = Math.floorDiv(y, 400);
+            int yoe = y - era * 400;
+            int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+            int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+            return era * 146097L + doe - 719468;
+        }
+
+        public Kind kind() {
+            return KINDS[kind];
+        }
+
+        /**
+         * @return microseconds since the epoch (in UTC for offset date-times), or the microsecond of the day
+         * for local times
+         */
+        public long micros() {
+            return micros;
+        }
+
+        /**
+         * @return the offset from UTC in minutes, 0 for local kinds
+         */
+        public int offsetMinutes() {
+            return offsetMinutes;
+        }
+
+        /**
+         * @return the microseconds of the local date-time, whatever the kind
+         */
+        private long localMicros() {
+            return micros + offsetMinutes * 60_000_000L;
+        }
+
+        public OffsetDateTime toOffsetDateTime() {
+            if (kind() != Kind.OFFSET_DATE_TIME)
+                throw new UnsupportedOperationException(kind() + " has no offset");
+            return OffsetDateTime.of(toLocalDateTime(), ZoneOffset.ofTotalSeconds(offsetMinutes * 60));
+        }
+
+        public LocalDateTime toLocalDateTime() {
+            if (kind() == Kind.LOCAL_TIME)
+                throw new UnsupportedOperationException(kind() + " has no date");
+            return LocalDateTime.of(toLocalDate(), toLocalTime());
+        }
+
+        public LocalDate toLocalDate() {
+            if (kind() == Kind.LOCAL_TIME)
+                throw new UnsupportedOperationException(kind() + " has no date");
+            return LocalDate.ofEpochDay(Math.floorDiv(localMicros(), MICROS_PER_DAY));
+        }
+
+        public LocalTime toLocalTime() {
+            if (kind() == Kind.LOCAL_DATE)
+                throw new UnsupportedOperationException(kind() + " has no time");
+            return LocalTime.ofNanoOfDay(Math.floorMod(localMicros(), MICROS_PER_DAY) * 1000);
+        }
+
+        /**
+         * @return the value as the java.time class of its kind: {@link OffsetDateTime}, {@link LocalDateTime},
+         * {@link LocalDate} or {@link LocalTime}
+         */
+        public Temporal toTemporal() {
+            return switch (kind()) {
+                case OFFSET_DATE_TIME -> toOffsetDateTime();
+                case LOCAL_DATE_TIME -> toLocalDateTime();
+                case LOCAL_DATE -> toLocalDate();
+                case LOCAL_TIME -> toLocalTime();
+            };
+        }
+
+        /**
+         * @return the instant of an offset date-time, or of a local date or date-time taken as UTC
+         */
+        public Instant toInstant() {
+            if (kind() == Kind.LOCAL_TIME)
+                throw new UnsupportedOperationException(kind() + " has no date");
+            return Instant.ofEpochSecond(Math.floorDiv(micros, 1_000_000), Math.floorMod(micros, 1_000_000) * 1000L);
+        }
+
+        /**
+         * @return the value in RFC 3339 format, seconds always included
+         */
+        @Override
+        public String asString() {
+            var b = new StringBuilder(32);
+            Kind k = kind();
+            long local = localMicros();
+            if (k != Kind.LOCAL_TIME) {
+                // inverse of epochDay(int, int, int)
+                long z = Math.floorDiv(local, MICROS_PER_DAY) + 719468;
+                long era = Math.floorDiv(z, 146097);
+                int doe = (int) (z - era * 146097);
+                int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+                int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+                int mp = (5 * doy + 2) / 153;
+                int day = doy - (153 * mp + 2) / 5 + 1;
+                int month = mp < 10 ? mp + 3 : mp - 9;
+                long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+                pad(b, year, 4).append('-');
+                pad(b, month, 2).append('-');
+                pad(b, day, 2);
+                if (k == Kind.LOCAL_DATE)
+                    return b.toString();
+                b.append('T');
+            }
+            long t = Math.floorMod(local, MICROS_PER_DAY);
+            long seconds = t / 1_000_000;
+            pad(b, seconds / 3600, 2).append(':');
+            pad(b, seconds / 60 % 60, 2).append(':');
+            pad(b, seconds % 60, 2);
+            int fraction = (int) (t % 1_000_000);
+            if (fraction != 0) {
+                b.append('.');
+                int digits = 6;
+                for (; fraction % 10 == 0; fraction /= 10)
+                    digits--;
+                pad(b, fraction, digits);
+            }
+            if (k == Kind.OFFSET_DATE_TIME) {
+                int o = offsetMinutes;
+                if (o == 0)
+                    b.append('Z');
+                else {
+                    b.append(o < 0 ? '-' : '+');
+                    o = Math.abs(o);
+                    pad(b, o / 60, 2).append(':');
+                    pad(b, o % 60, 2);
+                }
+            }
+            return b.toString();
+        }
+
+        private static StringBuilder pad(StringBuilder b, long v, int width) {
+            for (long p = 10; --width > 0; p *= 10)
+                if (v < p)
+                    b.append('0');
+            return b.append(v);
+        }
+
+        @Override
+        public int asInt() {
+            return (int) asLong();
+        }
+
+        /**
+         * @return milliseconds since the epoch, or the millisecond of the day for local times
+         */
+        @Override
+        public long asLong() {
+            return Math.floorDiv(micros, 1000);
+        }
+
+        @Override
+        public double asDouble() {
+            return asLong();
+        }
+
+        @Override
+        public float asFloat() {
+            return asLong();
+        }
+
+        @Override
+        public boolean asBoolean() {
+            return true;
+        }
+
+        @Override
+        long computeStructuralHash() {
+            return mix(7L * 0x9E3779B97F4A7C15L + mix(micros) + (offsetMinutes << 8 | kind));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return this == obj || obj instanceof TOMLDateTime o && micros == o.micros
+                    && offsetMinutes == o.offsetMinutes && kind == o.kind;
+        }
     }
 }
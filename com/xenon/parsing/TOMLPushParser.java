@@ -0,0 +1,68 @@
+package com.xenon.parsing;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Non-blocking TOML parser, fed with chunks of UTF-8 bytes as they arrive.
+ * Chunks can be split anywhere, including in the middle of a multi-byte char, of a token or of a multiline string:
+ * everything that cannot be completed yet is kept until the next {@link #feed(ByteBuffer)}.
+ * Complete values are given to the {@link TOMLListener}, if any, as soon as they are parsed.
+ * <pre><code>
+ *     var parser = new TOMLPushParser(ParseLimits.DEFAULT, listener);
+ *     while (channel.read(buffer) != -1) {
+ *         parser.feed(buffer.flip());
+ *         buffer.clear();
+ *     }
+ *     TOMLTable root = parser.endOfInput();
+ * </code></pre>
+ */
+public class TOMLPushParser {
+
+    private final TOMLWorker.Lexer lexer;
+    private final TOMLWorker.Engine engine = new TOMLWorker.Engine();
+    private final TOMLTable root = new TOMLTable();
+    private boolean ended;
+
+    public TOMLPushParser(ParseLimits limits) {
+        this(limits, null);
+    }
+
+    /**
+     * @param limits the limits the document must respect
+     * @param listener the listener of values and table declarations, may be null
+     */
+    public TOMLPushParser(ParseLimits limits, TOMLListener listener) {
+        lexer = TOMLWorker.Lexer.push(limits);
+        engine.reset(root, limits);
+        engine.listen(listener);
+    }
+
+    /**
+     * Parses as much as possible of the document with the next chunk of input.
+     * The chunk is entirely consumed (its position reaches its limit) and can be reused once this returns.
+     * @param chunk the next bytes of the document
+     * @throws ParsingException if the document is malformed or breaks one of the limits
+     */
+    public void feed(ByteBuffer chunk) throws ParsingException {
+        if (ended)
+            throw new IllegalStateException("Input already ended");
+        lexer.supply(chunk);
+        TOMLWorker.drain(lexer, engine);
+        assert lexer.starved() : "Lexer stopped without needing input";
+        lexer.release();
+    }
+
+    /**
+     * Parses what remains of the document.
+     * @return the root table of the document
+     * @throws ParsingException if the document is malformed, incomplete or breaks one of the limits
+     */
+    public TOMLTable endOfInput() throws ParsingException {
+        if (ended)
+            throw new IllegalStateException("Input already ended");
+        ended = true;
+        lexer.endInput();
+        TOMLWorker.drain(lexer, engine);
+        return engine.finish();
+    }
+}
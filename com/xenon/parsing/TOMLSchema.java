@@ -0,0 +1,304 @@
+package com.xenon.parsing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Constraints on the keys and values of a document, checked by the parser while it builds the tree.
+ * <pre><code>
+ *     TOMLSchema schema = TOMLSchema.builder()
+ *             .required("server.port", TOMLSchema.Type.INTEGER).range("server.port", 1, 65535)
+ *             .optional("server.mode", TOMLSchema.Type.STRING).oneOf("server.mode", "fast", "safe")
+ *             .optional("tags", TOMLSchema.Type.ARRAY).elements("tags", TOMLSchema.Type.STRING)
+ *             .required("products.name", TOMLSchema.Type.STRING)    // in every [[products]]
+ *             .build();
+ *     TOMLTable root = parser.validate(schema).reset(path).parse();
+ * </code></pre>
+ * Keys are dotted paths from the root. The elements of an array don't add a segment: the keys of the tables of
+ * <code>[[products]]</code>, or of an array of inline tables, are <code>products.key</code>.
+ * Ranges and enumerations apply to the value of a key or, for an array, to each of its elements. Element
+ * constraints apply to the array's own elements only: the elements of <code>[[1, 2], [3]]</code> are arrays,
+ * and what these hold isn't checked.
+ * Keys the schema doesn't mention are accepted as they are.
+ * <p>
+ * Values are checked as soon as the parser produces them, and array elements as they are added, so that a bad
+ * document is rejected before the rest of it is read. Required keys are checked at the end of the document,
+ * by looking them up, and for each streamed table before it is given to its consumer.
+ * @see TOMLParser#validate(TOMLSchema)
+ * @see TOMLParser#validate(TOMLSchema, List)
+ */
+public final class TOMLSchema {
+
+    /**
+     * Types of values. Integers and floats include both precisions.
+     */
+    public enum Type {
+        STRING, INTEGER, FLOAT, BOOLEAN, DATE_TIME, ARRAY, TABLE;
+
+        final int bit = 1 << ordinal();
+
+        static Type of(TOMLObject o) {
+            if (o instanceof TOMLTable)
+                return TABLE;
+            if (o instanceof TOMLArray)
+                return ARRAY;
+            TOMLPrimitive p = o.getAsPrimitive();
+            if (p.isString())
+                return STRING;
+            if (p.isInt() || p.isLong())
+                return INTEGER;
+            if (p.isFloat() || p.isDouble())
+                return FLOAT;
+            if (p.isBoolean())
+                return BOOLEAN;
+            return DATE_TIME;
+        }
+    }
+
+    private static final int ANY = (1 << Type.values().length) - 1;
+
+    /**
+     * A broken constraint.
+     * @param key the dotted key of the value
+     * @param message what's wrong with it
+     */
+    public record Violation(String key, String message) {
+        @Override
+        public String toString() {
+            return key + ": " + message;
+        }
+    }
+
+    private final Node root;
+
+    private TOMLSchema(Node root) {
+        this.root = root;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Constraints of a key, and the keys under it.
+     */
+    static final class Node {
+        final String path;
+        final Map<String, Node> children = new HashMap<>();
+        int types = ANY, elements = ANY;
+        double min = Double.NEGATIVE_INFINITY, max = Double.POSITIVE_INFINITY;
+        Set<String> allowed;
+        boolean required, requiredBelow;
+
+        Node(String path) {
+            this.path = path;
+        }
+
+        Node child(String segment) {
+            return children.computeIfAbsent(segment, s -> new Node(path.isEmpty() ? s : path + '.' + s));
+        }
+    }
+
+    public static final class Builder {
+
+        private Node root = new Node("");
+
+        private Builder() {}
+
+        /**
+         * Declares a key that must be present, and so must the tables holding it.
+         * @param key the dotted key
+         * @param types the types the value may have, any if none is given
+         * @return this builder
+         */
+        public Builder required(String key, Type... types) {
+            optional(key, types);
+            Node n = root;
+            for (String s : key.split("\\.")) {
+                n.requiredBelow = true;
+                n = n.child(s);
+                n.required = true;
+            }
+            return this;
+        }
+
+        /**
+         * Declares a key that may be absent.
+         * @param key the dotted key
+         * @param types the types the value may have, any if none is given
+         * @return this builder
+         */
+        public Builder optional(String key, Type... types) {
+            node(key).types = mask(types);
+            return this;
+        }
+
+        /**
+         * @param key the dotted key of an array
+         * @param types the types its elements may have
+         * @return this builder
+         */
+        public Builder elements(String key, Type... types) {
+            node(key).elements = mask(types);
+            return this;
+        }
+
+        /**
+         * Bounds the numbers of a key, inclusively.
+         * @param key the dotted key
+         * @param min the minimum
+         * @param max the maximum
+         * @return this builder
+         */
+        public Builder range(String key, double min, double max) {
+            if (!(min <= max))
+                throw new IllegalArgumentException("Invalid range for " + key + ": [" + min + ", " + max + "]");
+            Node n = node(key);
+            n.min = min;
+            n.max = max;
+            return this;
+        }
+
+        /**
+         * Restricts the values of a key to an enumeration, compared in their string form.
+         * @param key the dotted key
+         * @param values the allowed values
+         * @return this builder
+         */
+        public Builder oneOf(String key, String... values) {
+            node(key).allowed = new HashSet<>(List.of(values));
+            return this;
+        }
+
+        public TOMLSchema build() {
+            Node r = root;
+            if (r == null)
+                throw new IllegalStateException("Schema already built");
+            root = null;
+            return new TOMLSchema(r);
+        }
+
+        private Node node(String key) {
+            if (root == null)
+                throw new IllegalStateException("Schema already built");
+            Node n = root;
+            for (String s : key.split("\\."))
+                n = n.child(s);
+            return n;
+        }
+
+        private static int mask(Type[] types) {
+            if (types.length == 0)
+                return ANY;
+            int m = 0;
+            for (Type t : types)
+                m |= t.bit;
+            return m;
+        }
+    }
+
+    /*
+     * Checks, called by the parser. Violations are thrown if violations is null, and added to it otherwise.
+     */
+
+    Node root() {
+        return root;
+    }
+
+    /**
+     * @param n the node of a table, or null
+     * @param key the (dotted) key of a value, relative to the table
+     * @return the node of the value, or null if the schema doesn't go that deep
+     */
+    static Node child(Node n, String key) {
+        int s = 0;
+        for (int dot; n != null; s = dot + 1) {
+            dot = key.indexOf('.', s);
+            n = n.children.get(dot == -1 ? key.substring(s) : key.substring(s, dot));
+            if (dot == -1)
+                break;
+        }
+        return n;
+    }
+
+    /**
+     * Checks the type of a value, and its range and enumeration if it is a primitive.
+     */
+    static void value(Node n, TOMLObject value, List<Violation> violations) throws ParsingException {
+        Type t = Type.of(value);
+        if ((n.types & t.bit) == 0)
+            report(n, "expected " + types(n.types) + ", got " + t, violations);
+        else if (t != Type.ARRAY && t != Type.TABLE)
+            primitive(n, value.getAsPrimitive(), t, violations);
+    }
+
+    /**
+     * Checks an element added to an array.
+     */
+    static void element(Node n, TOMLObject value, List<Violation> violations) throws ParsingException {
+        Type t = Type.of(value);
+        if ((n.elements & t.bit) == 0)
+            report(n, "expected elements of " + types(n.elements) + ", got " + t, violations);
+        else if (t != Type.ARRAY && t != Type.TABLE)
+            primitive(n, value.getAsPrimitive(), t, violations);
+    }
+
+    private static void primitive(Node n, TOMLPrimitive p, Type t, List<Violation> violations)
+            throws ParsingException {
+        if ((t == Type.INTEGER || t == Type.FLOAT) && (n.min != Double.NEGATIVE_INFINITY
+                || n.max != Double.POSITIVE_INFINITY)) {
+            double d = t == Type.INTEGER ? p.asLong() : p.asDouble();
+            if (!(d >= n.min && d <= n.max))
+                report(n, p + " out of range [" + n.min + ", " + n.max + "]", violations);
+        }
+        if (n.allowed != null && !n.allowed.contains(p.asString()))
+            report(n, p + " is not one of " + n.allowed, violations);
+    }
+
+    /**
+     * Checks the required keys under <code>n</code>, <code>value</code> being its value. Only the branches of
+     * the schema holding required keys are looked at. If <code>value</code> is a primitive, the required keys
+     * right under <code>n</code> are reported missing.
+     */
+    static void required(Node n, TOMLObject value, List<Violation> violations) throws ParsingException {
+        if (!n.requiredBelow)
+            return;
+        if (value instanceof TOMLArray a) {
+            for (TOMLObject e : a)
+                required(n, e, violations);
+        } else if (value instanceof TOMLTable t) {
+            Map<String, TOMLObject> children = t.children();
+            for (Map.Entry<String, Node> e : n.children.entrySet()) {
+                Node c = e.getValue();
+                TOMLObject v = children.get(e.getKey());
+                if (v == null) {
+                    if (c.required)
+                        report(c, "missing required key", violations);
+                } else required(c, v, violations);
+            }
+        } else {    // a primitive where tables were expected: what they should hold is missing
+            for (Node c : n.children.values())
+                if (c.required)
+                    report(c, "missing required key, " + n.path + " is " + Type.of(value) + ", not a table",
+                            violations);
+        }
+    }
+
+    private static void report(Node n, String message, List<Violation> violations) throws ParsingException {
+        if (violations == null)
+            throw ParsingException.because("Schema violation for " + n.path + ": " + message);
+        violations.add(new Violation(n.path, message));
+    }
+
+    private static String types(int mask) {
+        List<Type> l = new ArrayList<>();
+        for (Type t : Type.values())
+            if ((mask & t.bit) != 0)
+                l.add(t);
+        return l.size() == 1 ? l.get(0).toString() : "one of " + l;
+    }
+}
@@ -6,8 +6,66 @@ public class TOMLTable extends TOMLObject {
 
 
     private final Map<String, TOMLObject> children = new HashMap<>();
+    /** counters of the reads of the keys, if the tree is tracked */
+    TOMLAccessTracker.Scope tracked;
 
 
+    /**
+     * Gets the value associated with a key. Dotted keys are looked up through the subtables, and through the last
+     * table of the arrays of tables they encounter, just like {@link #handle(String, TOMLObject)} would do.
+     * @param key the (dotted) key
+     * @return the value associated with <code>key</code>, or null if there is none
+     */
+    public TOMLObject get(String key) {
+        TOMLTable context = this;
+        int st = 0, dot;
+        while ((dot = key.indexOf('.', st)) != -1) {
+            context = asContext(context.children.get(key.substring(st, dot)));
+            if (context == null)
+                return null;
+            st = dot + 1;
+        }
+        String last = st == 0 ? key : key.substring(st);
+        TOMLObject o = context.children.get(last);
+        if (context.tracked != null && o != null)
+            context.tracked.read(last);
+        return o;
+    }
+
+    public boolean contains(String key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return an unmodifiable view of the direct keys of this table
+     */
+    public Set<String> keySet() {
+        return Collections.unmodifiableSet(children.keySet());
+    }
+
+    public int size() {
+        return children.size();
+    }
+
+    /**
+     * Read-only view of this table as a standard map, for code expecting plain Java objects.
+     * Nothing is copied: values are unwrapped at each access, subtables and arrays as views as well, strings as
+     * String, numbers as the Integer, Long, Float or Double they were parsed as, booleans as Boolean and date-times
+     * as their java.time class. Keys are not dotted.
+     * @return the view
+     * @see TOMLArray#asList()
+     */
+    public Map<String, Object> asMap() {
+        return new CollectionViews.MapView(this);
+    }
+
+    /**
+     * @return the backing map, not to be modified
+     */
+    Map<String, TOMLObject> children() {
+        return children;
+    }
+
     /**
      * Puts the key and value into {@link #children}, with a little work with dotted keys.
      * If <code>value</code> is a table and another table is already associated with <code>key</code>, it'll attempt
@@ -20,27 +78,81 @@ public class TOMLTable extends TOMLObject {
     void handle(String key, TOMLObject value) throws ParsingException {
         String[] path = key.split("\\.");
         int end = path.length - 1;
+        TOMLTable context = navigate(path, end);
+        context.invalidate();
+        TOMLObject old = context.children.get(path[end]);
+        if (old == null)
+            context.children.put(path[end], value);
+        else if (value.isTable() && old.isTable()) {
+            context.children.put(path[end], value);
+            merge(old.getAsTable(), value.getAsTable());
+        }
+        else throw ParsingException.because(context+" already has a value for "+path[end]);
+
+    }
+
+    /**
+     * Appends a table to the array of tables associated with <code>key</code>, creating the array if needed.
+     * This is what a <code>[[key]]</code> declaration does.
+     * @param key the (dotted) key of the array
+     * @param value the new last table of the array
+     * @return the array <code>value</code> was appended to
+     * @throws ParsingException if <code>key</code> is associated with something else than an array of tables
+     */
+    TOMLArray handleArrayOfTables(String key, TOMLTable value) throws ParsingException {
+        String[] path = key.split("\\.");
+        int end = path.length - 1;
+        TOMLTable context = navigate(path, end);
+        context.invalidate();
+        TOMLObject old = context.children.get(path[end]);
+        TOMLArray array;
+        if (old == null) {
+            array = new TOMLArray(true);
+            context.children.put(path[end], array);
+        } else if (old instanceof TOMLArray a && a.ofTables)
+            array = a;
+        else throw ParsingException.because(context+" already has a value for "+path[end]+
+                    " that is not an array of tables");
+        array.add(value);
+        return array;
+    }
+
+    /**
+     * Walks the first <code>end</code> elements of <code>path</code>, creating the missing tables.
+     * Every table and array of tables walked through gets its structural hash invalidated, as its content is
+     * about to change.
+     * @return the table that should contain <code>path[end]</code>
+     * @throws ParsingException if an element of the path is not a table
+     */
+    private TOMLTable navigate(String[] path, int end) throws ParsingException {
         TOMLTable context = this;
         for (int i=0; i < end; i++) {
+            context.invalidate();
             String s = path[i];
             TOMLObject o = context.children.get(s);
+            if (o != null)
+                o.invalidate();
             if (o == null) {
                 var t = new TOMLTable();
                 context.children.put(s, t);
                 context = t;
-            } else if (o instanceof TOMLTable)
+            } else if ((o = asContext(o)) != null)
                 context = (TOMLTable) o;
             else throw ParsingException.because(context+" does not contain "+s+" as a table.");
         }
-        TOMLObject old = context.children.get(path[end]);
-        if (old == null)
-            context.children.put(path[end], value);
-        else if (value.isTable() && old.isTable()) {
-            context.children.put(path[end], value);
-            merge(old.getAsTable(), value.getAsTable());
-        }
-        else throw ParsingException.because(context+" already has a value for "+path[end]);
+        return context;
+    }
 
+    /**
+     * @return the table dotted keys should go through for <code>o</code>, that is <code>o</code> itself
+     * or the last table of an array of tables, null otherwise
+     */
+    static TOMLTable asContext(TOMLObject o) {
+        if (o instanceof TOMLTable t)
+            return t;
+        if (o instanceof TOMLArray a && a.ofTables && a.size() != 0)
+            return (TOMLTable) a.get(a.size() - 1);
+        return null;
     }
 
     /**
@@ -50,6 +162,7 @@ public class TOMLTable extends TOMLObject {
      * @throws ParsingException if conflicts occur
      */
     private static void merge(TOMLTable old, TOMLTable new_) throws ParsingException {
+        new_.invalidate();
         Map<String, TOMLObject> n_map = new_.children;
         for (Map.Entry<String, TOMLObject> entry : old.children.entrySet()) {
             String old_key = entry.getKey();
@@ -64,6 +177,20 @@ public class TOMLTable extends TOMLObject {
         }
     }
 
+    @Override
+    long computeStructuralHash() {
+        long h = 0x5A5A5A5AL;
+        for (Map.Entry<String, TOMLObject> e : children.entrySet())   // commutative: key order doesn't matter
+            h += mix(hash(e.getKey()) * 31 + e.getValue().structuralHash());
+        return mix(h + children.size());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return this == obj || obj instanceof TOMLTable t && structuralHash() == t.structuralHash()
+                && children.equals(t.children);
+    }
+
     @Override
     public String toString() {
         return children.toString();
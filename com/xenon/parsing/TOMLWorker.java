@@ -1,9 +1,20 @@
 package com.xenon.parsing;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 
 import static com.xenon.parsing.StringMisc.*;
 
@@ -22,8 +33,6 @@ import static com.xenon.parsing.StringMisc.*;
  *     this is too much.</li>
  *     <li>Keys that are composed of both quoted and unquoted part: huh, so having 'site."google.com"' in your file
  *     should be fine? A bit too brainfuck-ish imo.</li>
- *     <li>Array of tables: the syntax sugar for arrays of tables is not supported
- *     as it'll raise the complexity of the parser by at least 200% for what little gain.</li>
  *     <li>Inline table const properties: According to the specs, when an inline table is associated to a key,
  *     it shouldn't be edited more somewhere else.</li>
  * </ul>
@@ -129,6 +138,8 @@ public class TOMLWorker {
      */
     private static TOMLPrimitive primitiveFromLexeme(Token token) throws ParsingException {
         assert !token.isMark() : "Cannot convert a mark into a TOMLPrimitive";
+        if (token.primitive != null)
+            return token.primitive;
         if (token.type == Type.QUOTED)
             return new TOMLPrimitive.TOMLString(token.value);
 
@@ -382,143 +393,532 @@ public class TOMLWorker {
 
     /*----------------- REALISTIC METHODS ------------------*/
 
+    /**
+     * Parses a TOML file with the {@link ParseLimits#DEFAULT default limits}.
+     * @param tomlFile the file to be parsed
+     * @return the root table of the document
+     * @throws ParsingException if the file is malformed, unreadable or breaks one of the limits
+     * @see #parse(Path, ParseLimits)
+     */
     public static TOMLTable parse(Path tomlFile) throws ParsingException {
-        var map = new TOMLTable();
-        Lexer lexer;
-        try {
-            lexer = Lexer.build(tomlFile);
-        } catch (IOException e) {
-            throw ParsingException.from(e);
-        }
-        parseMap(lexer, Token.markOf('\n'), true, map);
-        return map;
+        return parse(tomlFile, ParseLimits.DEFAULT);
     }
 
+    /**
+     * Parses a TOML file.
+     * @param tomlFile the file to be parsed
+     * @param limits the limits the document must respect
+     * @return the root table of the document
+     * @throws ParsingException if the file is malformed, unreadable or breaks one of the limits
+     */
+    public static TOMLTable parse(Path tomlFile, ParseLimits limits) throws ParsingException {
+        return TOMLParser.plain(limits).reset(tomlFile).parse();
+    }
 
-    private static void parseMap(Lexer supplier, Token delimiter, boolean top_lvl, TOMLTable context)
+    /**
+     * Parses a TOML file, streaming the tables of the array of tables <code>[[recordKey]]</code> one by one to
+     * <code>records</code> instead of keeping them, so memory stays constant whatever the number of tables.
+     * A table is given to <code>records</code> once it is complete, that is when the next <code>[[recordKey]]</code>
+     * is declared or the document ends. Subtables declared in between, such as <code>[recordKey.sub]</code>,
+     * are part of it.
+     * The document limit of {@link ParseLimits#DEFAULT} is lifted, and keys of streamed tables are not counted
+     * towards {@link ParseLimits#maxKeys()}.
+     * @param tomlFile the file to be parsed
+     * @param recordKey the exact (dotted) key of the array of tables to stream
+     * @param records the consumer of the tables
+     * @return the rest of the document, where <code>recordKey</code> is left as an empty array
+     * @throws ParsingException if the file is malformed, unreadable or breaks one of the limits
+     * @see #parse(Path, ParseLimits, String, Consumer)
+     */
+    public static TOMLTable parse(Path tomlFile, String recordKey, Consumer<? super TOMLTable> records)
             throws ParsingException {
-        State state = State.KEY;
-        boolean declaring_table = false;    // special state for when the global context is switched, e.g. [a_table]
-        TOMLTable top_table_back_up = context;
-        String key = null, declared_table = null;
-        Token t = supplier.next();
-        Token backup_first_token = t;   // used to detect if there's a trailing comma
-        label:
-        for (; t != null; t = supplier.next()) {
+        return parse(tomlFile, ParseLimits.DEFAULT.withMaxDocumentLength(Long.MAX_VALUE), recordKey, records);
+    }
+
+    /**
+     * Parses a TOML file, streaming the tables of the array of tables <code>[[recordKey]]</code> one by one to
+     * <code>records</code> instead of keeping them.
+     * @param tomlFile the file to be parsed
+     * @param limits the limits the document must respect
+     * @param recordKey the exact (dotted) key of the array of tables to stream
+     * @param records the consumer of the tables
+     * @return the rest of the document, where <code>recordKey</code> is left as an empty array
+     * @throws ParsingException if the file is malformed, unreadable or breaks one of the limits
+     * @see #parse(Path, String, Consumer)
+     */
+    public static TOMLTable parse(Path tomlFile, ParseLimits limits, String recordKey,
+                                  Consumer<? super TOMLTable> records) throws ParsingException {
+        return TOMLParser.plain(limits).reset(tomlFile).parse(recordKey, records);
+    }
+
+    /**
+     * Parses everything the lexer supplies, with the lexer's limits.
+     * The lexer is not closed.
+     * @param lexer the lexer
+     * @return the root table of the document
+     * @throws ParsingException if the document is malformed or breaks one of the limits
+     */
+    public static TOMLTable parse(Lexer lexer) throws ParsingException {
+        var engine = new Engine();
+        engine.reset(new TOMLTable(), lexer.limits);
+        drain(lexer, engine);
+        return engine.finish();
+    }
+
+    /**
+     * Feeds the engine with the tokens of the lexer, until the lexer has none left or needs more input.
+     */
+    static void drain(Lexer lexer, Engine engine) throws ParsingException {
+        for (Token t = lexer.next(); t != null; t = lexer.next())
+            engine.accept(t);
+    }
+
+    /**
+     * Feeds the engine with at most <code>maxTokens</code> tokens of the lexer.
+     * @return the number of tokens fed, less than <code>maxTokens</code> if the lexer has none left or needs more
+     * input
+     */
+    static int drain(Lexer lexer, Engine engine, int maxTokens) throws ParsingException {
+        int n = 0;
+        for (Token t; n < maxTokens && (t = lexer.next()) != null; n++)
+            engine.accept(t);
+        return n;
+    }
+
+    /**
+     * Puts the tokens of the lexer in the ring, until the lexer has none left or needs more input.
+     * @return false if the ring was closed by its consumer
+     */
+    static boolean lex(Lexer lexer, TokenRing ring) throws ParsingException {
+        for (Token t = lexer.next(); t != null; t = lexer.next())
+            if (!ring.put(t))
+                return false;
+        return true;
+    }
+
+    /**
+     * Feeds the engine with at most <code>maxTokens</code> tokens of the ring, waiting for the lexer if needed.
+     * @return the number of tokens fed, less than <code>maxTokens</code> if the lexer has none left
+     * @throws ParsingException if the lexer failed
+     */
+    static int feed(TokenRing ring, Engine engine, int maxTokens) throws ParsingException {
+        int n = 0;
+        for (Token t; n < maxTokens; n++) {
+            if ((t = ring.take()) == null) {
+                ring.rethrow();
+                break;
+            }
+            engine.accept(t);
+        }
+        return n;
+    }
+
+    /**
+     * Bounded lock-free queue of tokens between one lexing thread and one parsing thread.
+     * Each side owns its index, published with a release store, and reads the other's again only when its cached
+     * copy says the ring is full or empty. A side waiting for the other spins briefly, then yields, then parks.
+     * Marks are shared constants, so the slots hold little more than the strings and numbers of the document.
+     */
+    static final class TokenRing {
+
+        private static final int SPINS = 64, YIELDS = 64;
+
+        private final Token[] slots;
+        private final int mask;
+        private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();   // next to take, next to put
+        private long headSeen, tailSeen;    // by the producer and by the consumer
+        private volatile boolean ended, closed;
+        private volatile Throwable failure;
+
+        /**
+         * @param capacity the number of slots, rounded up to a power of two
+         */
+        TokenRing(int capacity) {
+            int c = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+            slots = new Token[c];
+            mask = c - 1;
+        }
+
+        /**
+         * Adds a token, waiting for a free slot.
+         * @return false if the consumer closed the ring
+         */
+        boolean put(Token t) {
+            long tl = tail.get();
+            if (tl - headSeen == slots.length) {
+                for (int waits = 0; tl - (headSeen = head.get()) == slots.length; waits++) {
+                    if (closed)
+                        return false;
+                    idle(waits);
+                }
+            }
+            slots[(int) tl & mask] = t;
+            tail.lazySet(tl + 1);
+            return true;
+        }
+
+        /**
+         * Removes a token, waiting for one.
+         * @return the token, or null if the producer ended
+         */
+        Token take() {
+            long h = head.get();
+            if (h == tailSeen) {
+                for (int waits = 0; h == (tailSeen = tail.get()); waits++) {
+                    if (ended && h == (tailSeen = tail.get()))
+                        return null;
+                    idle(waits);
+                }
+            }
+            int i = (int) h & mask;
+            Token t = slots[i];
+            slots[i] = null;
+            head.lazySet(h + 1);
+            return t;
+        }
+
+        private static void idle(int waits) {
+            if (waits < SPINS)
+                Thread.onSpinWait();
+            else if (waits < SPINS + YIELDS)
+                Thread.yield();
+            else LockSupport.parkNanos(20_000);
+        }
+
+        /**
+         * Signals the consumer that no more token will be put.
+         */
+        void end() {
+            ended = true;
+        }
+
+        /**
+         * Ends the ring with the exception the producer failed with, thrown to the consumer by {@link #rethrow()}.
+         */
+        void fail(Throwable t) {
+            failure = t;
+            ended = true;
+        }
+
+        /**
+         * Signals the producer that no more token will be taken.
+         */
+        void close() {
+            closed = true;
+        }
+
+        void rethrow() throws ParsingException {
+            Throwable t = failure;
+            if (t instanceof ParsingException p)
+                throw p;
+            if (t instanceof RuntimeException r)
+                throw r;
+            if (t instanceof Error e)
+                throw e;
+            if (t != null)
+                throw ParsingException.from(t);
+        }
+    }
+
+
+    /**
+     * Iterative TOML grammar.
+     * Tokens are pushed one by one through {@link #accept(Token)}. Each inline table or array being parsed owns a
+     * {@link Frame} on an explicit stack instead of a recursive call, so the nesting a document can reach is bounded
+     * by {@link ParseLimits#maxDepth()} and not by the size of the thread stack.
+     * Frames are recycled: an Engine can be {@link #reset(TOMLTable, ParseLimits) reset} and reused.
+     */
+    static final class Engine {
+
+        private Frame[] stack = new Frame[16];
+        private int depth;
+        private ParseLimits limits;
+        private int keys;
+
+        private TOMLListener listener;
+        private OffHeapStorage storage;
+        private boolean columnar;
+
+        // inline validation
+        private TOMLSchema schema;
+        private List<TOMLSchema.Violation> violations;  // null to fail on the first one
+
+        // delivery of the document section by section
+        private Sections sections;
+        private String sectionKey;
+        private boolean sectionArray;
+
+        // streaming of arrays of tables
+        private String recordKey;
+        private Consumer<? super TOMLTable> records;
+        private TOMLArray recordArray;
+        private int keysBeforeRecord;
+
+        /**
+         * Prepares the engine for a new document.
+         * @param root the table top-level keys are put into
+         * @param limits the limits the document must respect
+         */
+        void reset(TOMLTable root, ParseLimits limits) {
+            this.limits = limits;
+            keys = 0;
+            while (depth > 0)   // left by a failed parse
+                stack[--depth].clear();
+            recordKey = null;
+            records = null;
+            recordArray = null;
+            listener = null;
+            storage = null;
+            columnar = false;
+            sections = null;
+            sectionKey = null;
+            sectionArray = false;
+            schema = null;
+            violations = null;
+            push(0).map(root, true);
+        }
+
+        /**
+         * Notifies <code>l</code> of table declarations and of every top-level value once it is complete.
+         * @param l the listener
+         */
+        void listen(TOMLListener l) {
+            listener = l;
+        }
+
+        /**
+         * Gives every section of the document, that is the top-level keys and then the content of each table
+         * header, to <code>s</code> as soon as it ends, instead of keeping it in the root table.
+         * Sections are delivered as they're written, without merging the ones declaring the same tables, and
+         * {@link ParseLimits#maxKeys()} applies to each of them rather than to the whole document.
+         * @param s the receiver of the sections
+         */
+        void sections(Sections s) {
+            sections = s;
+        }
+
+        /**
+         * Moves the large numeric arrays and strings of the document to <code>s</code>.
+         * @param s the storage, or null to keep everything on the heap
+         */
+        void offHeap(OffHeapStorage s) {
+            storage = s;
+        }
+
+        /**
+         * Stores the arrays of same-shaped inline tables of the document by columns.
+         * @param c whether to store them by columns
+         * @see TOMLColumns
+         */
+        void columnar(boolean c) {
+            columnar = c;
+        }
+
+        /**
+         * Checks the values against <code>s</code> as they are produced.
+         * Must be called before the first token, since the root frame gets the root of the schema.
+         * @param s the schema, or null not to validate
+         * @param violations the list violations are added to, or null to throw the first one
+         */
+        void validate(TOMLSchema s, List<TOMLSchema.Violation> violations) {
+            schema = s;
+            this.violations = violations;
+            stack[0].node = s == null ? null : s.root();
+        }
+
+        /**
+         * Streams the tables of the array of tables declared with <code>[[key]]</code> instead of keeping them.
+         * A table is given to <code>consumer</code> once the next <code>[[key]]</code> is declared or the document
+         * ends, and is then removed from the array, so that only one of them is held at a time.
+         * Keys of a streamed table no longer count towards {@link ParseLimits#maxKeys()}.
+         * @param key the exact (dotted) key of the array
+         * @param consumer the consumer of the tables
+         */
+        void stream(String key, Consumer<? super TOMLTable> consumer) {
+            recordKey = key;
+            records = consumer;
+        }
+
+        /**
+         * Feeds the next token of the document.
+         * @param t the token
+         * @throws ParsingException if the token is unexpected or a limit is broken
+         */
+        void accept(Token t) throws ParsingException {
+            Frame f = stack[depth - 1];
+            if (f.isMap)
+                parseMap(f, t);
+            else
+                parseArray(f, t);
+        }
+
+        /**
+         * Signals the end of the document.
+         * @return the root table given to {@link #reset(TOMLTable, ParseLimits)}
+         * @throws ParsingException if a table or an array was left unclosed
+         */
+        TOMLTable finish() throws ParsingException {
+            if (depth > 1)
+                throw ParsingException.because(stack[depth - 1].isMap ? "Nested map must be closed"
+                        : "Array left unclosed at the end of the file.");
+            Frame f = stack[0];
+            if (f.declaring_table || !(f.state == State.KEY || f.state == State.DELIMITER))
+                throw ParsingException.because("Malformed end of file");
+            TOMLTable root = f.root;
+            if (sections != null)
+                sections.section(sectionKey, sectionArray, f.context);
+            f.clear();
+            depth = 0;
+            emitRecord();
+            recordArray = null;
+            if (schema != null && sections == null)    // sections are gone, and so are their keys
+                TOMLSchema.required(schema.root(), root, violations);
+            return root;
+        }
+
+        private void parseMap(Frame f, Token t) throws ParsingException {
             switch(t.type) {
                 case QUOTED, UNQUOTED -> {
-                    switch(state) {
-                        case KEY -> key = t.value;
+                    switch(f.state) {
+                        case KEY -> f.key = t.text();
                         case VALUE -> {
-                            if (declaring_table)
+                            if (f.declaring_table)
                                 throw ParsingException.because("Expected ']' for table declaration, got "+t);
-                            context.handle(key, primitiveFromLexeme(t));
+                            handle(f, value(t));
                         }
                         case EQUAL -> {
-                            if (!declaring_table)
-                                throw ParsingException.because("Got text '"+t+"' when expecting a "+state);
-                            declared_table = t.value;
+                            if (!f.declaring_table)
+                                throw ParsingException.because("Got text '"+t+"' when expecting a "+f.state);
+                            f.declared_table = t.text();
                         }
-                        default -> throw ParsingException.because("Got text '"+t+"' when expecting a "+state);
+                        default -> throw ParsingException.because("Got text '"+t+"' when expecting a "+f.state);
                     }
                 }
                 case MARK -> {
-                    if (t.is('\n') && (!top_lvl || state == State.KEY))    // either not top_lvl or empty line case
-                        continue label; // don't cycle state
-                    switch(state) {
+                    if (t.is('\n') && (!f.top_lvl || f.state == State.KEY))    // either not top_lvl or empty line
+                        return; // don't cycle state
+                    switch(f.state) {
                         case EQUAL -> {
-                            if (declaring_table)
+                            if (f.declaring_table && t.is('[') && !f.declaring_array) {  // [[array.of.tables]]
+                                f.declaring_array = true;
+                                return;
+                            }
+                            if (f.declaring_table)
                                 throw ParsingException.because("Expected a table name, got '"+t+'\'');
                             if (!t.is('='))
                                 throw ParsingException.because("Expected '=', got '"+t+'\'');
                         }
                         case DELIMITER -> {
-                            if (!top_lvl && t.is('}'))
+                            if (!f.top_lvl && t.is('}')) {
+                                pop(f.context);
                                 return;
+                            }
+                            char delimiter = f.top_lvl ? '\n' : ',';
                             if (!t.is(delimiter))
                                 throw ParsingException.because("Expected '"+delimiter+'\''+", got '"+t+'\'');
-                            if (declaring_table) {
+                            if (f.declaring_table) {
+                                if (sections != null)
+                                    nextSection(f);
+                                int level = segments(f.declared_table);
                                 var map = new TOMLTable();
-                                top_table_back_up.handle(declared_table, map);
+                                if (f.declaring_array) {
+                                    checkDepth(++level);
+                                    declareRecord(f, map);
+                                } else {
+                                    checkDepth(level);
+                                    countKey();
+                                    f.root.handle(f.declared_table, map);
+                                }
                                 // context is forever changed until end of file or another table declaration
-                                context = map;
-                                declaring_table = false;
+                                f.context = map;
+                                f.level = level;
+                                if (schema != null) {
+                                    f.node = TOMLSchema.child(schema.root(), f.declared_table);
+                                    if (f.node != null && !f.declaring_array)
+                                        TOMLSchema.value(f.node, map, violations);
+                                }
+                                if (listener != null)
+                                    listener.table(f.declared_table, f.declaring_array);
+                                f.declaring_table = f.declaring_array = f.array_closing = false;
                             }
                         }
                         case KEY -> {
-                            if (!top_lvl && t.is('}') && t != backup_first_token)
+                            if (!f.top_lvl && t.is('}')) {
+                                // key is only set by a member: '{' '}' is empty, ',' '}' is a trailing comma
+                                if (f.key != null)
+                                    throw ParsingException.because("Inline table ended directly after a comma at: "+t);
+                                pop(f.context);
                                 return;
-                            if (top_lvl && t.is('['))
-                                declaring_table = true;
+                            }
+                            if (f.top_lvl && t.is('['))
+                                f.declaring_table = true;
                             else throw ParsingException.because("Expected a key, got '"+t+'\'');
                         }
                         case VALUE -> {
-                            if (!declaring_table){
-                                TOMLObject value;
+                            if (!f.declaring_table) {
+                                int level = checkDepth(f.level + segments(f.key));
+                                f.state = f.state.cycle();  // the value is handled when its frame is popped
                                 switch(t.mark) {
-                                    case '[' -> value = parseArray(supplier);
-                                    case '{' -> {
-                                        value = new TOMLTable();
-                                        parseMap(supplier, Token.markOf(','), false, (TOMLTable) value);
-                                    }
-                                    default -> throw ParsingException.because("Expected a value for "+key+", got "+t);
+                                    case '[' -> push(level).array(newArray());
+                                    case '{' -> push(level).map(new TOMLTable(), false);
+                                    default -> throw ParsingException.because("Expected a value for "+f.key+
+                                            ", got "+t);
                                 }
-                                context.handle(key, value);
+                                if (schema != null)
+                                    stack[depth - 1].node = TOMLSchema.child(f.node, f.key);
+                                return;
                             } else if (!t.is(']'))
-                                throw ParsingException.because("Expected a value for "+key+", got "+t);
+                                throw ParsingException.because("Expected a value for "+f.key+", got "+t);
+                            else if (f.declaring_array && !f.array_closing) {  // first ']' of ']]'
+                                f.array_closing = true;
+                                return;
+                            }
                         }
-                        default -> throw ParsingException.because("Got a mark when expecting a "+state);
+                        default -> throw ParsingException.because("Got a mark when expecting a "+f.state);
                     }
                 }
             }
-            state = state.cycle();
+            f.state = f.state.cycle();
         }
-    }
-
 
-    private static TOMLArray parseArray(Lexer supplier) throws ParsingException {
-        var array = new TOMLArray();
-        boolean expectMark = false, success = false;
-        Token t = supplier.next();
-        Token backup_first_token = t;   // used to detect if there's a trailing comma
-        label:
-        for (; t != null; t = supplier.next()) {
+        private void parseArray(Frame f, Token t) throws ParsingException {
             switch (t.type) {
                 case QUOTED, UNQUOTED -> {
-                    if (expectMark)
+                    if (f.expectMark)
                         throw ParsingException.because("Encountered 2 TOMLObjects without ',' between them in: "+t);
-                    array.add(primitiveFromLexeme(t));
-                    expectMark = true;
+                    TOMLPrimitive v = value(t);
+                    if (f.node != null)
+                        TOMLSchema.element(f.node, v, violations);
+                    f.array.add(v);
+                    f.expectMark = true;
                 }
                 case MARK -> {
                     switch(t.mark) {
-                        case '[' -> {
-                            if (expectMark)
-                                throw ParsingException.because("Encountered 2 TOMLObjects without ',' between them in: "
-                                        +t);
-                            expectMark = true;
-                            array.add(parseArray(supplier));
-                        }
-                        case '{' -> {
-                            if (expectMark)
+                        case '[', '{' -> {
+                            if (f.expectMark)
                                 throw ParsingException.because("Encountered 2 TOMLObjects without ',' between them in: "
                                         +t);
-                            expectMark = true;
-                            var map = new TOMLTable();
-                            array.add(map);
-                            parseMap(supplier, Token.markOf(','), false, map);
+                            f.expectMark = true;
+                            int level = checkDepth(f.level + 1);
+                            if (t.mark == '[') {
+                                push(level).array(newArray());
+                                stack[depth - 1].node = null;   // element constraints stop at the first level
+                            } else {
+                                push(level).map(new TOMLTable(), false);
+                                stack[depth - 1].node = f.node;  // its keys are those of the array
+                            }
                         }
                         case ',' -> {
-                            if (!expectMark)
+                            if (!f.expectMark)
                                 throw ParsingException.because("Encountered ',' right next to '[' or another ',' in: "
                                         +t);
-                            expectMark = false;
+                            f.expectMark = false;
                         }
                         case ']' -> {
-                            if (!expectMark && t != backup_first_token)
+                            // same grammar as inline tables: empty or not, but no trailing comma
+                            if (!f.expectMark && f.array.size() != 0)
                                 throw ParsingException.because("Array ended directly after a comma at: "+t);
-                            success = true;
-                            break label;
+                            pop(f.array);
                         }
                         case '\n' -> {}
                         default -> throw ParsingException.because("Encountered a non-valid mark: '"+t+'\'');
@@ -526,153 +926,721 @@ public class TOMLWorker {
                 }
             }
         }
-        if (!success)
-            throw ParsingException.because("Array left unclosed at the end of the file.");
-        return array;
+
+        /**
+         * @return the primitive of a value token, copied off-heap if it's a string long enough
+         */
+        private TOMLPrimitive value(Token t) throws ParsingException {
+            if (storage != null && t.type == Type.QUOTED && t.value != null
+                    && t.value.length() >= storage.stringThreshold)
+                return new TOMLPrimitive.TOMLString(storage.chars(t.value));
+            return primitiveFromLexeme(t);
+        }
+
+        private TOMLArray newArray() {
+            return storage == null && !columnar ? new TOMLArray() : new TOMLArray(storage, columnar);
+        }
+
+        /**
+         * Puts <code>value</code> in the context of a map frame, under the frame's current key.
+         */
+        private void handle(Frame f, TOMLObject value) throws ParsingException {
+            checkDepth(f.level + segments(f.key));
+            countKey();
+            if (f.node != null) {
+                TOMLSchema.Node n = TOMLSchema.child(f.node, f.key);
+                if (n != null)
+                    TOMLSchema.value(n, value, violations);
+            }
+            f.context.handle(f.key, value);
+            if (listener != null && f.top_lvl)
+                listener.value(f.declared_table == null ? "" : f.declared_table, f.key, value);
+        }
+
+        /**
+         * Delivers the section that ends with the table declaration of the top frame, and forgets it.
+         */
+        private void nextSection(Frame f) throws ParsingException {
+            sections.section(sectionKey, sectionArray, f.context);
+            sectionKey = f.declared_table;
+            sectionArray = f.declaring_array;
+            f.root = new TOMLTable();
+            keys = 0;
+        }
+
+        /**
+         * Appends a new table to the array of tables the top frame is declaring, and checks both against the schema.
+         */
+        private void declareRecord(Frame f, TOMLTable table) throws ParsingException {
+            TOMLArray array, streamed = recordArray;
+            if (records != null && f.declared_table.equals(recordKey)) {
+                emitRecord();
+                keysBeforeRecord = keys;
+                countKey();
+                array = recordArray = f.root.handleArrayOfTables(f.declared_table, table);
+            } else {
+                countKey();
+                array = f.root.handleArrayOfTables(f.declared_table, table);
+            }
+            TOMLSchema.Node n = schema == null ? null : TOMLSchema.child(schema.root(), f.declared_table);
+            if (n != null) {
+                if (array.size() == 1 && array != streamed)    // the array is new
+                    TOMLSchema.value(n, array, violations);
+                TOMLSchema.element(n, table, violations);
+            }
+        }
+
+        /**
+         * Gives the table being streamed, if any, to the consumer and drops it.
+         */
+        private void emitRecord() throws ParsingException {
+            TOMLArray a = recordArray;
+            if (a != null && a.size() != 0) {
+                TOMLTable record = a.get(0).getAsTable();
+                a.clear();
+                keys = keysBeforeRecord;
+                if (schema != null) {
+                    TOMLSchema.Node n = TOMLSchema.child(schema.root(), recordKey);
+                    if (n != null)
+                        TOMLSchema.required(n, record, violations);
+                }
+                records.accept(record);
+            }
+        }
+
+        /**
+         * Closes the innermost frame and gives its value to the frame underneath.
+         */
+        private void pop(TOMLObject value) throws ParsingException {
+            stack[--depth].clear();
+            Frame parent = stack[depth - 1];
+            if (parent.isMap)
+                handle(parent, value);
+            else {
+                if (parent.node != null)
+                    TOMLSchema.element(parent.node, value, violations);
+                parent.array.add(value);
+            }
+        }
+
+        private Frame push(int level) {
+            if (depth == stack.length)
+                stack = Arrays.copyOf(stack, depth << 1);
+            Frame f = stack[depth];
+            if (f == null)
+                stack[depth] = f = new Frame();
+            depth++;
+            f.level = level;
+            return f;
+        }
+
+        private int checkDepth(int level) throws ParsingException {
+            if (level > limits.maxDepth())
+                throw ParsingException.because("Nesting depth exceeds the limit of "+limits.maxDepth());
+            return level;
+        }
+
+        private void countKey() throws ParsingException {
+            if (++keys > limits.maxKeys())
+                throw ParsingException.because("Document exceeds the limit of "+limits.maxKeys()+" keys");
+        }
+
+        /**
+         * @return the number of tables a dotted key goes through, the last segment included
+         */
+        private static int segments(String key) {
+            int n = 1;
+            for (int i = 0, len = key.length(); i < len; i++)
+                if (key.charAt(i) == '.')
+                    n++;
+            return n;
+        }
+
+        /**
+         * Receiver of the sections of a document.
+         * @see #sections(Sections)
+         */
+        interface Sections {
+            /**
+             * @param key the (dotted) key of the table header starting the section, null for the top-level keys
+             * @param arrayOfTables whether the header is a <code>[[key]]</code> one
+             * @param content the keys and values of the section, dropped by the engine afterwards
+             */
+            void section(String key, boolean arrayOfTables, TOMLTable content) throws ParsingException;
+        }
+
+        /**
+         * State of a table or an array being parsed.
+         */
+        private static final class Frame {
+            boolean isMap, top_lvl;
+            /** nesting level of {@link #context} or {@link #array} */
+            int level;
+
+            // map frames
+            State state;
+            boolean declaring_table;    // special state for when the global context is switched, e.g. [a_table]
+            boolean declaring_array, array_closing; // [[an_array_of_tables]], and whether the first ']' was read
+            String key, declared_table;
+            TOMLTable context, root;
+            TOMLSchema.Node node;   // constraints of context or array, null if none
+
+            // array frames
+            TOMLArray array;
+            boolean expectMark;
+
+            void map(TOMLTable table, boolean top) {
+                isMap = true;
+                top_lvl = top;
+                state = State.KEY;
+                context = root = table;
+            }
+
+            void array(TOMLArray a) {
+                isMap = false;
+                array = a;
+                expectMark = false;
+            }
+
+            void clear() {
+                declaring_table = declaring_array = array_closing = false;
+                key = declared_table = null;
+                context = root = null;
+                array = null;
+                node = null;
+            }
+        }
     }
 
 
     /**
      * Tokenizer class for TOML parsing.
      * Use static methods from {@link TOMLWorker} with an instance of it, or directly use {@link #parse(Path)}.
+     * Reading is bounded by the {@link ParseLimits} given at build time.
+     * <p>
+     * A Lexer either pulls characters from a {@link Reader}, or is pushed chunks of UTF-8 bytes
+     * (see {@link TOMLPushParser}). In the latter case, {@link #next()} also returns null when it ran out of input
+     * in the middle of a line or of a multiline string: everything read so far is kept, and lexing resumes
+     * where it stopped once more bytes are supplied.
      * @author Zenon
      */
-    public static class Lexer {
+    public static class Lexer implements Closeable {
+
+        private static final char[] BASIC_MULTILINE = {'"', '"', '"'}, LITERAL_MULTILINE = {'\'', '\'', '\''};
+        private static final char[] DOUBLE_QUOTE = {'"'}, SINGLE_QUOTE = {'\''};
+        private static final ByteBuffer NO_BYTES = ByteBuffer.allocate(0);
+        /** scratch builders grown past this capacity are not kept by {@link #reset(ParseLimits)} */
+        private static final int MAX_RETAINED_CAPACITY = 1 << 16;
 
-        private boolean end_of_file;
+        private boolean end_of_file, needLine = true;
         private int i;
-        private char[] tempLine;
-        private final Iterator<String> lines;
+        private char[] tempLine = new char[128];
+        private int lineEnd;    // length of the line in tempLine
+        private ParseLimits limits;
+
+        private final char[] buffer = new char[8192];
+        private int bufferPos, bufferLimit;
+        private long read;  // total number of chars read from the source
+        private boolean skipLF; // previous line ended with '\r'
+        private boolean lineStarted;    // part of the next line is already in line
+        private StringBuilder line = new StringBuilder();
+
+        private char[] multiline_pattern;   // non-null while inside a multiline string
+        private StringBuilder multiline = new StringBuilder();
+        private OffHeapStorage storage;
+        private OffHeapStorage.CharsBuilder spill;  // the multiline string, once moved to the storage
+
+        // pull mode, from a reader or from a string
+        private Reader source;
+        private String text;
+        private int textPos;
+
+        // push mode
+        private CharsetDecoder decoder;
+        private CharBuffer bufferView;
+        private ByteBuffer carry; // bytes of a char split between two chunks, in write mode
+        private ByteBuffer chunk;
+        private boolean input_ended, starved, flushed;
 
         /**
-         * Builds a new TOML Lexer for the supplied TOML file.
+         * Builds a new TOML Lexer for the supplied TOML file, with the {@link ParseLimits#DEFAULT default limits}.
          * @param tomlFile the file to be parsed
          * @return a new TOML Lexer
          * @throws IOException if reading <code>tomlFile</code> fails
          */
         public static Lexer build(Path tomlFile) throws IOException {
-            return new Lexer(Files.lines(tomlFile).iterator());
+            return build(tomlFile, ParseLimits.DEFAULT);
+        }
+
+        /**
+         * Builds a new TOML Lexer for the supplied TOML file.
+         * @param tomlFile the file to be parsed
+         * @param limits the limits to enforce
+         * @return a new TOML Lexer
+         * @throws IOException if opening <code>tomlFile</code> fails
+         */
+        public static Lexer build(Path tomlFile, ParseLimits limits) throws IOException {
+            return new Lexer(Files.newBufferedReader(tomlFile), limits);
+        }
+
+        /**
+         * Builds a new TOML Lexer reading from <code>source</code>.
+         * @param source the characters to be parsed
+         * @param limits the limits to enforce
+         * @return a new TOML Lexer
+         */
+        public static Lexer build(Reader source, ParseLimits limits) {
+            return new Lexer(source, limits);
+        }
+
+        /**
+         * Builds a new TOML Lexer that is pushed UTF-8 bytes with {@link #supply(ByteBuffer)}.
+         * @param limits the limits to enforce
+         * @return a new TOML Lexer
+         */
+        static Lexer push(ParseLimits limits) {
+            return new Lexer(null, limits);
         }
-        private Lexer(Iterator<String> lineSupplier) {
-            lines = lineSupplier;
-            updateLine();
+
+        private Lexer(Reader source, ParseLimits limits) {
+            this.source = source;
+            this.limits = limits;
+        }
+
+        /**
+         * Forgets everything about the current document, but keeps the buffers for the next one.
+         * The Lexer is left without source: set one with {@link #source(Reader)}, {@link #text(String)},
+         * or push bytes with {@link #supply(ByteBuffer)}. The previous source is not closed.
+         * @param limits the limits to enforce for the next document
+         */
+        void reset(ParseLimits limits) {
+            this.limits = limits;
+            end_of_file = false;
+            needLine = true;
+            i = lineEnd = 0;
+            bufferPos = bufferLimit = 0;
+            read = 0;
+            skipLF = lineStarted = false;
+            multiline_pattern = null;
+            storage = null;
+            spill = null;
+            line = trim(line);
+            multiline = trim(multiline);
+            if (tempLine.length > MAX_RETAINED_CAPACITY)
+                tempLine = new char[128];
+            source = null;
+            text = null;
+            textPos = 0;
+            chunk = null;
+            input_ended = starved = flushed = false;
+            if (decoder != null) {
+                decoder.reset();
+                carry.clear();
+            }
+        }
+
+        private static StringBuilder trim(StringBuilder b) {
+            if (b.capacity() > MAX_RETAINED_CAPACITY)
+                return new StringBuilder();
+            b.setLength(0);
+            return b;
+        }
+
+        /**
+         * Sets the reader of a {@link #reset(ParseLimits) reset} Lexer.
+         */
+        void source(Reader r) {
+            source = r;
+        }
+
+        /**
+         * Sets the whole text of a {@link #reset(ParseLimits) reset} Lexer.
+         */
+        void text(String s) {
+            text = s;
+            textPos = 0;
+        }
+
+        /**
+         * Hands the next chunk of input to a push Lexer. The chunk is consumed by the following calls to
+         * {@link #next()}, until it returns null; whatever is left of it then is the beginning of a char
+         * split with the next chunk, and is saved by {@link #release()}.
+         * @param bytes the chunk
+         */
+        void supply(ByteBuffer bytes) {
+            if (decoder == null) {
+                decoder = StandardCharsets.UTF_8.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPORT)
+                        .onUnmappableCharacter(CodingErrorAction.REPORT);
+                bufferView = CharBuffer.wrap(buffer);
+                carry = ByteBuffer.allocate(8);
+            }
+            chunk = bytes;
+            starved = false;
+        }
+
+        /**
+         * Saves what remains of the current chunk, so the caller can reuse it.
+         * @throws ParsingException if more than a split char remains
+         */
+        void release() throws ParsingException {
+            ByteBuffer b = chunk;
+            chunk = null;
+            if (b != null && b.hasRemaining()) {
+                if (b.remaining() > carry.remaining())
+                    throw ParsingException.because("Malformed UTF-8 input");
+                carry.put(b);
+            }
+        }
+
+        /**
+         * Signals a push Lexer that no more input will be supplied.
+         */
+        void endInput() {
+            input_ended = true;
+            starved = false;
+        }
+
+        /**
+         * Moves the multiline strings of at least {@link OffHeapStorage#stringThreshold} chars to <code>s</code>
+         * while they are read, instead of building them in the heap.
+         * @param s the storage, or null to keep everything on the heap
+         */
+        void offHeap(OffHeapStorage s) {
+            storage = s;
+        }
+
+        /**
+         * @return whether the last null returned by {@link #next()} means that more input is needed,
+         * rather than the end of the document
+         */
+        boolean starved() {
+            return starved;
+        }
+
+        /**
+         * @return the number of chars read from the source so far
+         */
+        long consumed() {
+            return read;
         }
 
         public Token next() throws ParsingException {
-            char[] c = tempLine;
-            if (c == null)
+            if (end_of_file)
                 return null;
-            if(!end_of_file) {
-                int len = c.length;
-                int unquoteStart = 0;
-                boolean unquote = false;
-                labelLine:
-                for (; i < len; i++) {
-                    char ch = c[i];
-                    switch(ch) {
-                        case '"', '\'' -> {
-                            if (unquote)
-                                return Token.of(Type.UNQUOTED, unescapeJava(of(c, unquoteStart, i)));
-                            if (len - i > 2 && c[i + 1] == ch && c[i + 2] == ch) {
-                                i += 3;
-                                return Token.of(Type.QUOTED, handleMultiline(new char[]{ch, ch, ch}));
-                            }
-                            int st = ++i;
-                            String s;
-                            if (ch == '"') {
-                                i = findNearestMatchEscapedStrong(c, st, ch);
-                                s = of(c, st, i);
-                                s = unescapeJava(s);
-                            } else {  // should not escape
-                                i = findNearestMatchStrong(c, st, ch);
-                                s = of(c, st, i);
-                            }
-                            ++i;
-                            return Token.of(Type.QUOTED, s);
+            if (needLine) {
+                if (!updateLine()) {
+                    if (starved)
+                        return null;
+                    if (multiline_pattern != null)
+                        throw ParsingException.because("Multiline string left unclosed at the end of the file: "+
+                                of(tempLine, 0, lineEnd));
+                    end_of_file = true;
+                    return null;
+                }
+                needLine = false;
+            }
+            if (multiline_pattern != null)
+                return multilineToken();
+            char[] c = tempLine;
+            int len = lineEnd;
+            int unquoteStart = 0;
+            boolean unquote = false;
+            labelLine:
+            for (; i < len; i++) {
+                char ch = c[i];
+                switch(ch) {
+                    case '"', '\'' -> {
+                        if (unquote)
+                            return unquoted(c, unquoteStart, i);
+                        if (len - i > 2 && c[i + 1] == ch && c[i + 2] == ch) {
+                            i += 3;
+                            multiline_pattern = ch == '"' ? BASIC_MULTILINE : LITERAL_MULTILINE;
+                            return multilineToken();
                         }
-                        case '[', ']', '{', '}', ',', '=' -> {
-                            if (unquote)
-                                return Token.of(Type.UNQUOTED, unescapeJava(of(c, unquoteStart, i)));
-                            ++i;
-                            return Token.markOf(ch);
+                        int st = ++i;
+                        String s;
+                        if (ch == '"') {
+                            i = findNearestMatchEscapedStrong(c, st, len, DOUBLE_QUOTE);
+                            limits.checkString(i - st);
+                            s = of(c, st, i);
+                            s = unescapeJava(s);
+                        } else {  // should not escape
+                            i = findNearestMatchStrong(c, st, len, SINGLE_QUOTE);
+                            limits.checkString(i - st);
+                            s = of(c, st, i);
                         }
-                        case '#' -> {
-                            break labelLine;
+                        ++i;
+                        return Token.of(Type.QUOTED, s);
+                    }
+                    case '[', ']', '{', '}', ',', '=' -> {
+                        if (unquote)
+                            return unquoted(c, unquoteStart, i);
+                        ++i;
+                        return Token.markOf(ch);
+                    }
+                    case '#' -> {
+                        break labelLine;
+                    }
+                    default -> {
+                        if (Character.isWhitespace(ch)) {
+                            if (unquote && !(ch == ' ' && isDateTimeSpace(c, unquoteStart, i, len)))
+                                return unquoted(c, unquoteStart, i++);
+                        } else {
+                            if (!unquote)
+                                unquoteStart = i;
+                            unquote = true;
                         }
-                        default -> {
-                            if (Character.isWhitespace(ch)) {
-                                if (unquote)
-                                    return Token.of(Type.UNQUOTED, unescapeJava(of(c, unquoteStart, i++)));
-                            } else {
-                                if (!unquote)
-                                    unquoteStart = i;
-                                unquote = true;
-                            }
 
-                            if (ch == '\\') {
-                                if (!(len - i > 1 && isAffectedByBackslash(c[i + 1])))
-                                    throw ParsingException.of(c, i, "Invalid control code at line: "
-                                            +Arrays.toString(c));
-                                i++;
-                            }
+                        if (ch == '\\') {
+                            if (!(len - i > 1 && isAffectedByBackslash(c[i + 1])))
+                                throw ParsingException.of(Arrays.copyOf(c, len), i, "Invalid control code at line: "
+                                        +of(c, 0, len));
+                            i++;
                         }
                     }
                 }
-                if (unquote)
-                    return Token.of(Type.UNQUOTED, unescapeJava(of(c, unquoteStart, i)));
+            }
+            if (unquote)
+                return unquoted(c, unquoteStart, i);
+
+            needLine = true;
+            return Token.markOf('\n');
+        }
 
-                end_of_file = !updateLine();
-                return Token.markOf('\n');
+        private Token unquoted(char[] c, int start, int afterEnd) throws ParsingException {
+            limits.checkString(afterEnd - start);
+            if (TOMLPrimitive.TOMLDateTime.looksLike(c, start, afterEnd)) {
+                var dt = TOMLPrimitive.TOMLDateTime.parse(c, start, afterEnd);
+                if (dt != null)
+                    return Token.of(dt);
             }
+            return Token.of(Type.UNQUOTED, unescapeJava(of(c, start, afterEnd)));
+        }
+
+        /**
+         * TOML allows a space instead of 'T' between the date and the time of a date-time.
+         * @param c the line
+         * @param start the start of the unquoted value being read
+         * @param space the index of the space that would end it
+         * @param len the length of the line
+         * @return whether the value is a date followed by that space and a time
+         */
+        private static boolean isDateTimeSpace(char[] c, int start, int space, int len) {
+            return space - start == 10 && len - space > 3 && c[space + 3] == ':'
+                    && TOMLPrimitive.TOMLDateTime.looksLike(c, start, space);
+        }
 
-            return null;
+        private Token multilineToken() throws ParsingException {
+            CharSequence s = handleMultiline();
+            return s == null ? null : s instanceof String str ? Token.of(Type.QUOTED, str)
+                    : Token.quoted(new TOMLPrimitive.TOMLString(s));
         }
 
+        /**
+         * Reads a multiline string until {@link #multiline_pattern}, starting at the current line.
+         * Once the string reaches the threshold of the {@link #offHeap(OffHeapStorage) storage}, it is moved there
+         * and the following lines are appended to it directly; its escape sequences are then replaced in place.
+         * @return the string, stored off-heap if it is long enough, or null if a push Lexer ran out of input before
+         * its end
+         * @throws ParsingException if the string is left unclosed or too long
+         */
         @SuppressWarnings("StatementWithEmptyBody")
-        private String handleMultiline(char[] stop_pattern) throws ParsingException {
-            var builder = new StringBuilder();
-            do {
+        private CharSequence handleMultiline() throws ParsingException {
+            char[] stop_pattern = multiline_pattern;
+            StringBuilder builder = multiline;
+            for (;;) {
                 char[] c = tempLine;
-                int len = c.length;
+                int len = lineEnd;
                 if (i == 0)
                     for (; i < len && Character.isWhitespace(c[i]); i++) ;
                 int tmp = i;
-                i = findNearestMatchEscapedUnchecked(c, tmp, stop_pattern);
+                i = findNearestMatchEscapedUnchecked(c, tmp, len, stop_pattern);
                 if (i == -1) {  // if i == -1, line will get updated and i will be set back to 0
                     for (i = len - 1; i > tmp && Character.isWhitespace(c[i]); i--);
                     int ed = i; // last non-space character
-                    if (c[i] == '\\') {
+                    if (ed < tmp)   // blank rest of line
+                        builder.append('\n');
+                    else if (c[i] == '\\') {
                         int tmp2 = ed;
                         for (i--; i > tmp && c[i] == '\\'; i--);
                         tmp2 -= i;
                         if ((tmp2 & 1) != 0)   // tmp2 % 2 != 0
-                            builder.append(of(c, tmp, ed));
+                            builder.append(c, tmp, ed - tmp);
 
-                    } else builder.append(of(c, tmp, ed + 1)).append('\n');
+                    } else builder.append(c, tmp, ed + 1 - tmp).append('\n');
                 } else {
-                    builder.append(of(c, tmp, i));
+                    builder.append(c, tmp, i - tmp);
                     i += 3;
-                    if (builder.charAt(0) == '\n')
+                    multiline_pattern = null;
+                    if (spill != null || storage != null && builder.length() >= storage.stringThreshold) {
+                        OffHeapStorage.CharsBuilder b = spill(builder);
+                        spill = null;
+                        if (b.length() > 0 && b.last() == '\n')
+                            b.removeLast();
+                        limits.checkString(b.length());
+                        return b.unescape();
+                    }
+                    if (builder.length() > 0 && builder.charAt(0) == '\n')
                         builder.deleteCharAt(0);
                     int builder_end = builder.length() - 1;
-                    if (builder.charAt(builder_end) == '\n')
+                    if (builder_end >= 0 && builder.charAt(builder_end) == '\n')
                         builder.deleteCharAt(builder_end);
-                    return unescapeJava(builder.toString());
+                    limits.checkString(builder.length());
+                    String s = unescapeJava(builder.toString());
+                    builder.setLength(0);
+                    return s;
+                }
+                if (spill != null || storage != null && builder.length() >= storage.stringThreshold)
+                    limits.checkString(spill(builder).length());
+                else limits.checkString(builder.length());
+                if (!updateLine()) {
+                    if (starved) {
+                        needLine = true;
+                        return null;
+                    }
+                    throw ParsingException.because("Multiline string left unclosed at the end of the file: "+
+                            of(tempLine, 0, lineEnd));
+                }
+            }
+        }
+
+        /**
+         * Moves the chars of <code>builder</code> to {@link #spill}, which is created if needed.
+         * @return the spill
+         */
+        private OffHeapStorage.CharsBuilder spill(StringBuilder builder) {
+            OffHeapStorage.CharsBuilder b = spill;
+            if (b == null) {
+                if (builder.charAt(0) == '\n')
+                    builder.deleteCharAt(0);
+                spill = b = storage.new CharsBuilder(Math.max(16, builder.length() << 1));
+            }
+            b.append(builder);
+            builder.setLength(0);
+            return b;
+        }
+
+        /**
+         * Reads the next line of the source into {@link #tempLine}. Lines are split like
+         * {@link java.io.BufferedReader#readLine()} does, but a line can never grow past the document limit.
+         * If a push Lexer runs out of input, the beginning of the line is kept for the next call.
+         * @return whether a line was read
+         * @throws ParsingException if reading fails or if the document exceeds its limit
+         */
+        private boolean updateLine() throws ParsingException {
+            StringBuilder l = line;
+            for (;;) {
+                if (bufferPos == bufferLimit && !fill()) {
+                    if (starved || !lineStarted)
+                        return false;
+                    break;
+                }
+                char[] b = buffer;
+                int p = bufferPos;
+                if (skipLF) {
+                    skipLF = false;
+                    if (b[p] == '\n')
+                        bufferPos = ++p;
+                    if (p == bufferLimit)
+                        continue;
                 }
-            } while(updateLine());
-            throw ParsingException.because("Multiline string left unclosed at the end of the file: "+
-                    tempLine[tempLine.length - 1]);
+                lineStarted = true;
+                int st = p, lim = bufferLimit;
+                for (; p < lim && b[p] != '\n' && b[p] != '\r'; p++);
+                l.append(b, st, p - st);
+                if (p < lim) {
+                    skipLF = b[p] == '\r';
+                    bufferPos = p + 1;
+                    break;
+                }
+                bufferPos = p;
+            }
+            i = 0;
+            int len = l.length();
+            if (tempLine.length < len)
+                tempLine = new char[Math.max(len, tempLine.length << 1)];
+            l.getChars(0, len, tempLine, 0);
+            lineEnd = len;
+            l.setLength(0);
+            lineStarted = false;
+            return true;
         }
 
-        private boolean updateLine() {
-            if (lines.hasNext()) {
-                i = 0;
-                tempLine = lines.next().toCharArray();
-                return true;
+        /**
+         * Refills {@link #buffer}, from the reader or by decoding the supplied chunk.
+         * @return whether chars were read
+         * @throws ParsingException if reading fails or if the document exceeds its limit
+         */
+        private boolean fill() throws ParsingException {
+            int n;
+            if (text != null) {
+                n = Math.min(buffer.length, text.length() - textPos);
+                text.getChars(textPos, textPos + n, buffer, 0);
+                textPos += n;
+            } else if (source != null) {
+                try {
+                    n = source.read(buffer);
+                } catch (IOException e) {
+                    throw ParsingException.from(e);
+                }
+            } else if (decoder != null)
+                n = decode();
+            else    // push Lexer that was never supplied
+                n = 0;
+            if (n <= 0)
+                return false;
+            read += n;
+            if (read > limits.maxDocumentLength())
+                throw ParsingException.because("Document exceeds the limit of "+limits.maxDocumentLength()+
+                        " characters");
+            bufferPos = 0;
+            bufferLimit = n;
+            return true;
+        }
+
+        /**
+         * Decodes as much of the current chunk as {@link #buffer} can hold.
+         * @return the number of chars decoded, 0 if more input is needed or if it ended
+         */
+        private int decode() throws ParsingException {
+            if (flushed)
+                return 0;
+            CharBuffer out = bufferView;
+            out.clear();
+            ByteBuffer in = chunk != null ? chunk : NO_BYTES;
+            // first complete a char split between the previous chunk and this one
+            while (carry.position() > 0 && in.hasRemaining()) {
+                carry.put(in.get()).flip();
+                check(decoder.decode(carry, out, false));
+                carry.compact();
+            }
+            if (carry.position() == 0 || input_ended) {
+                if (input_ended && carry.position() > 0) {
+                    carry.flip();
+                    check(decoder.decode(carry, out, true));
+                    carry.compact();
+                }
+                check(decoder.decode(in, out, input_ended));
+                if (input_ended && !in.hasRemaining() && decoder.flush(out).isUnderflow())
+                    flushed = true;
             }
-            return false;
+            int n = out.position();
+            if (n == 0)
+                starved = !input_ended;
+            return n;
+        }
+
+        private static void check(CoderResult result) throws ParsingException {
+            if (result.isError())
+                throw ParsingException.because("Malformed UTF-8 input: "+result);
         }
 
+        @Override
+        public void close() throws IOException {
+            if (source != null)
+                source.close();
+        }
     }
 
 
@@ -690,18 +1658,49 @@ public class TOMLWorker {
     }
 
     /**
-     * Node class for the lexer
+     * Node class for the lexer.
+     * Values the lexer already decoded, such as dates or strings moved off-heap, carry their {@link #primitive}
+     * instead of a value.
      */
-    private record Token(Type type, String value, char mark) {
+    private record Token(Type type, String value, char mark, TOMLPrimitive primitive) {
 
         /*
         * Constructor shortcuts
         * */
         static Token of(Type t, String value){
-            return new Token(t, value, '\u0000');
+            return new Token(t, value, '\u0000', null);
+        }
+        static Token of(TOMLPrimitive decoded){
+            return new Token(Type.UNQUOTED, null, '\u0000', decoded);
+        }
+        static Token quoted(TOMLPrimitive.TOMLString decoded){
+            return new Token(Type.QUOTED, null, '\u0000', decoded);
         }
         static Token markOf(char c){
-            return new Token(Type.MARK, null, c);
+            return switch(c) {
+                case '[' -> OPEN_BRACKET;
+                case ']' -> CLOSE_BRACKET;
+                case '{' -> OPEN_BRACE;
+                case '}' -> CLOSE_BRACE;
+                case ',' -> COMMA;
+                case '=' -> EQUAL;
+                case '\n' -> NEW_LINE;
+                default -> new Token(Type.MARK, null, c, null);
+            };
+        }
+        private static final Token OPEN_BRACKET = new Token(Type.MARK, null, '[', null),
+                CLOSE_BRACKET = new Token(Type.MARK, null, ']', null),
+                OPEN_BRACE = new Token(Type.MARK, null, '{', null),
+                CLOSE_BRACE = new Token(Type.MARK, null, '}', null),
+                COMMA = new Token(Type.MARK, null, ',', null),
+                EQUAL = new Token(Type.MARK, null, '=', null),
+                NEW_LINE = new Token(Type.MARK, null, '\n', null);
+
+        /**
+         * @return the text of a non-mark token, formatted back from {@link #primitive} if it was decoded
+         */
+        String text(){
+            return value != null ? value : primitive.asString();
         }
 
         boolean is(Token other){
@@ -709,7 +1708,7 @@ public class TOMLWorker {
                 return false;
             if (type == Type.MARK)
                 return other.mark == mark;
-            return value.equals(other.value);
+            return text().equals(other.text());
         }
         boolean is(char c){
             assert isMark() : "Node must be a mark to contain";
@@ -722,7 +1721,7 @@ public class TOMLWorker {
 
         @Override
         public String toString() {
-            return type + (isMark() ? String.valueOf(mark) : value);
+            return type + (isMark() ? String.valueOf(mark) : text());
         }
     }
 